@@ -1,5 +1,12 @@
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 /**
  * Abstract class for Fractals. Contains info about zoom, pan,
@@ -18,17 +25,99 @@ public abstract class Fractal {
     }
 
     void zoom(double amount) {
-        if (mZoom + amount / 10 > 0) {
-            amount /= 10;
-            mZoom += amount;
-            invalidate();
+        if (changeZoom(amount)) {
+            invalidate(RenderStage.Geometry);
         }
     }
 
+    // Zooms while keeping the point at x, y in the same place on the screen
+    void zoomAt(double amount, int x, int y, int width, int height) {
+        Point2D anchor = getZoomAnchor(width, height);
+        double previousZoom = mZoom;
+        if (!changeZoom(amount)) {
+            return;
+        }
+
+        // Everything moves away from the anchor (plus pan) when zooming, so correct the pan for that
+        double ratio = mZoom / previousZoom;
+        mPanX = (int) Math.round((1 - ratio) * (x - anchor.getX()) + ratio * mPanX);
+        mPanY = (int) Math.round((1 - ratio) * (y - anchor.getY()) + ratio * mPanY);
+        invalidate(RenderStage.Geometry);
+    }
+
+    // Changes the zoom without invalidating, returns whether the zoom changed
+    boolean changeZoom(double amount) {
+        double zoom = getNextZoom(amount);
+        if (zoom > 0) {
+            mZoom = zoom;
+            return true;
+        }
+        return false;
+    }
+
+    // The zoom after zooming by some amount, every step adds a tenth
+    double getNextZoom(double amount) {
+        return mZoom + amount / 10;
+    }
+
+    // The point on the screen that stays in place when zooming while there is no pan
+    Point2D getZoomAnchor(int width, int height) {
+        return new Point2D.Double(width / 2d, height / 2d);
+    }
+
+    // Doubled position of the point that the Fractal looks the same around when rotated 180 degrees, in pixels
+    // without pan, or null if there is no such point. Doubled so that it is an integer when it lies between pixels.
+    Point getSymmetryCenter(int width, int height) {
+        return null;
+    }
+
+    // Tiles don't move along with the pan, so panning only puts them together differently
     void pan(int panX, int panY) {
         mPanX = panX;
         mPanY = panY;
-        invalidate();
+        invalidate(RenderStage.Composition);
+    }
+
+    // Changes the pan without invalidating, for Fractals that move the pan into a view state of their own
+    void setPanQuietly(int panX, int panY) {
+        mPanX = panX;
+        mPanY = panY;
+    }
+
+    // Goes back to the initial zoom and pan
+    void resetView() {
+        setView(0.75, 0, 0);
+    }
+
+    // Sets zoom and pan at once, used when the view doesn't come from the mouse
+    void setView(double zoom, int panX, int panY) {
+        mZoom = zoom;
+        mPanX = panX;
+        mPanY = panY;
+        invalidate(RenderStage.Geometry);
+    }
+
+    // Sets a view whose pan doesn't have to fit in an int, like a frame of a zoom animation. Only Fractals that can
+    // move their center show pans that don't fit.
+    void setView(double zoom, long panX, long panY, int width, int height) {
+        setView(zoom, Math.toIntExact(panX), Math.toIntExact(panY));
+    }
+
+    FractalView getView() {
+        return new FractalView(mZoom, mPanX, mPanY);
+    }
+
+    // Serializes zoom and pan, and whatever else a Fractal keeps as part of its view, on a single line
+    String serializeView() {
+        return mZoom + "," + mPanX + "," + mPanY;
+    }
+
+    // Restores a view that was serialized by serializeView, without invalidating
+    void deserializeView(String serialized) {
+        String[] split = serialized.split(",");
+        mZoom = Double.parseDouble(split[0]);
+        mPanX = Integer.parseInt(split[1]);
+        mPanY = Integer.parseInt(split[2]);
     }
 
     double getZoom() {
@@ -54,24 +143,114 @@ public abstract class Fractal {
         return mType;
     }
 
+    // Everything besides zoom and pan that influences what the Fractal looks like, for use in cache keys
+    String getStateKey() {
+        return serialize();
+    }
+
+    // The settings that influence a stage and the stages before it, which identify what that stage produces for a
+    // view. Used in cache keys.
+    String getStageKey(RenderStage stage) {
+        StringBuilder builder = new StringBuilder(getFractalTypeName(mType));
+        for (FractalSetting fractalSetting : getFractalSettings()) {
+            if (fractalSetting.getRenderStage().compareTo(stage) <= 0) {
+                builder.append('\n').append(fractalSetting.serialize());
+            }
+        }
+        return builder.toString();
+    }
+
+    // Gets a copy with the same settings and view, which can be drawn on another thread while this one changes
+    Fractal snapshot() {
+        Fractal snapshot = deserialize(serialize());
+        snapshot.mZoom = mZoom;
+        snapshot.mPanX = mPanX;
+        snapshot.mPanY = mPanY;
+        copyStateTo(snapshot);
+        return snapshot;
+    }
+
+    // Copies state that is not in the settings or the view into a snapshot of this Fractal
+    void copyStateTo(Fractal snapshot) {
+    }
+
+    // Identifies what the Iteration stage computes for a region of the viewport. The region is taken relative to the
+    // pan, so what was computed for it is found again after panning, just like tiles are.
+    FractalIterationCache.FieldKey getFieldKey(Rectangle region, int width, int height) {
+        Rectangle relative = new Rectangle(region);
+        relative.translate(-mPanX, -mPanY);
+        return new FractalIterationCache.FieldKey(relative, width, height, new FractalView(mZoom, 0, 0),
+                getStageKey(RenderStage.Iteration));
+    }
+
+    // What the Iteration stage computed for a region, as it is kept in a FractalCacheFile, or null if that is not in
+    // memory. Fractals that don't keep anything between stages return null.
+    ByteBuffer getCachedField(FractalIterationCache.FieldKey key) {
+        return null;
+    }
+
+    // The number of bytes every pixel takes up in what getCachedField returns
+    int getCachedFieldBytesPerPixel() {
+        return 0;
+    }
+
     // A listener is bound to the Fractal so it knows when to redraw the Fractal
     void setFractalListener(FractalListener listener) {
         mListener = listener;
     }
 
-    // Helper function for letting a listener know the Fractal needs to be redrawn
-    void invalidate() {
+    // Helper function for letting a listener know the Fractal needs to be redrawn, from the given stage on
+    void invalidate(RenderStage stage) {
         if (mListener != null) {
-            mListener.onFractalInvalidated();
+            mListener.onFractalInvalidated(stage);
         }
     }
 
-    abstract void draw(Graphics g, int width, int height);
+    // Draws the Fractal completely, unless the render is cancelled
+    void draw(Graphics g, int width, int height) {
+        draw(g, width, height, new FractalRenderBudget());
+    }
+
+    // Draws as much of the Fractal as the budget allows, coarse detail first, and returns whether it is complete.
+    // When the budget runs out halfway, what was drawn so far is a usable preview.
+    abstract boolean draw(Graphics g, int width, int height, FractalRenderBudget budget);
+
+    // The part of the plane that needs drawing: the clip if there is one, otherwise the viewport.
+    // The clip may reach outside the viewport, for example when rendering tiles.
+    static Rectangle getDrawBounds(Graphics g, int width, int height) {
+        Rectangle clip = g.getClipBounds();
+        return clip != null ? clip : new Rectangle(0, 0, width, height);
+    }
+
+    // Renders happen on a background thread that is interrupted when the render is no longer needed.
+    // The budget given to draw runs out when this happens, so what it drew should be thrown away.
+    static boolean isRenderCancelled() {
+        return Thread.currentThread().isInterrupted();
+    }
 
     abstract FractalSetting[] buildFractalSettings();
 
     interface FractalListener {
-        void onFractalInvalidated();
+        void onFractalInvalidated(RenderStage stage);
+    }
+
+    // The stages of drawing a Fractal, in order. Every stage uses what the stages before it produced, so a change
+    // that affects one stage means that stage and the ones after it are redone, while what the stages before it
+    // produced can be taken from a cache.
+    enum RenderStage {
+        // The shape itself, like the zoom or the depth of the recursion
+        Geometry,
+        // What is computed for every pixel, like iteration counts or which pixels a curve covers
+        Iteration,
+        // How the computed data is turned into colors
+        Coloring,
+        // How the rendered tiles are put together into a frame
+        Composition;
+
+        // The earliest of two stages, which covers the changes of both
+        static RenderStage earliest(RenderStage a, RenderStage b) {
+            return a == null || (b != null && b.compareTo(a) < 0) ? b : a;
+        }
     }
 
     // Constants containing the names of the FractalTypes
@@ -82,6 +261,49 @@ public abstract class Fractal {
 
     // The below functions are used for serialization
 
+    // Serializes the FractalType's name and all FractalSettings, one per line
+    String serialize() {
+        StringBuilder builder = new StringBuilder(getFractalTypeName(mType));
+        for (FractalSetting fractalSetting : getFractalSettings()) {
+            builder.append('\n').append(fractalSetting.serialize());
+        }
+        return builder.toString();
+    }
+
+    // Gets a Fractal from serialized settings, or null if the FractalType is unknown.
+    // Settings that are missing, for example because they were added later, keep their default.
+    static Fractal deserialize(String serialized) {
+        // Split by line
+        String[] split = serialized.split("\r?\n");
+
+        // Get the fractal associated with the first line
+        FractalType type = getFractalType(split[0].trim());
+        if (type == null) {
+            return null;
+        }
+        Fractal fractal = getFractal(type);
+
+        // Deserialize all lines into their associated FractalSetting
+        FractalSetting[] fractalSettings = fractal.getFractalSettings();
+        for (int i = 0; i < fractalSettings.length && i + 1 < split.length; i ++) {
+            fractalSettings[i].deserialize(split[i + 1].trim());
+        }
+
+        return fractal;
+    }
+
+    // Reads a Fractal from a settings file
+    static Fractal load(File file) throws IOException {
+        return deserialize(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    // Writes the Fractal to a settings file
+    void save(File file) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(serialize().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     // Get a Fractal object by FractalType.
     static Fractal getFractal(FractalType type) {
         switch (type) {
@@ -0,0 +1,187 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache file that is kept next to a settings file. It holds the view and what
+ * the Iteration stage computed for the tiles of the viewport that were still
+ * in memory: iteration counts for escape-time fractals and coverage masks for
+ * the others. When the settings are opened again, those tiles are only
+ * colored.
+ *
+ * The file is mapped into memory when it is opened, and the draws read their
+ * regions straight from it, so only the pages of the tiles that are drawn are
+ * read and nothing is copied onto the heap up front.
+ *
+ * Layout, little-endian: magic, version, width and height of the viewport,
+ * the length and UTF-8 bytes of the Iteration stage key and of the view, the
+ * number of tiles, and for every tile its region relative to the pan, offset
+ * and length in bytes.
+ * The data of the tiles follows, every tile at a multiple of 4 bytes. A file
+ * whose tiles don't fit their regions is rejected when it is opened, and
+ * values that are out of range are caught when a tile is drawn.
+ */
+public class FractalCacheFile {
+    // "FVCF"
+    private static final int MAGIC = 0x46564346;
+    private static final int VERSION = 3;
+
+    // The regions of the file that was opened last, only those are looked up
+    private static volatile Map<FractalIterationCache.FieldKey, ByteBuffer> sFields = new HashMap<>();
+
+    private FractalCacheFile() {
+    }
+
+    // The cache file that belongs to a settings file
+    static File getFile(File settingsFile) {
+        return new File(settingsFile.getPath() + ".cache");
+    }
+
+    // Gets what the opened cache file holds for a region, or null if it doesn't have it. The buffer is little-endian
+    // and shares its memory with the file.
+    static ByteBuffer getField(FractalIterationCache.FieldKey key) {
+        ByteBuffer field = sFields.get(key);
+        return field != null ? field.duplicate().order(ByteOrder.LITTLE_ENDIAN) : null;
+    }
+
+    // Writes the view of a Fractal and what was computed for the tiles of its viewport. Only tiles that are still in
+    // memory are written, so this doesn't compute anything and is quick enough to do while saving. The others are
+    // computed as usual when the file is opened.
+    static void write(File file, Fractal fractal, int width, int height) throws IOException {
+        Fractal snapshot = fractal.snapshot();
+        String stageKey = snapshot.getStageKey(Fractal.RenderStage.Iteration);
+        byte[] serializedStageKey = stageKey.getBytes(StandardCharsets.UTF_8);
+        byte[] serializedView = snapshot.serializeView().getBytes(StandardCharsets.UTF_8);
+
+        // Collect the fields of the tiles in the order the renderer draws them
+        Rectangle tiles = FractalRenderer.getVisibleTiles(snapshot, width, height);
+        List<Rectangle> regions = new ArrayList<>();
+        List<ByteBuffer> fields = new ArrayList<>();
+        for (int tileY = tiles.y; tileY < tiles.y + tiles.height; tileY ++) {
+            for (int tileX = tiles.x; tileX < tiles.x + tiles.width; tileX ++) {
+                int tileSize = FractalTileCache.TILE_SIZE;
+                Rectangle region = new Rectangle(tileX * tileSize + snapshot.getPanX(),
+                        tileY * tileSize + snapshot.getPanY(), tileSize, tileSize);
+                FractalIterationCache.FieldKey key = snapshot.getFieldKey(region, width, height);
+
+                // Fractals that don't keep anything only have their view in the file
+                ByteBuffer field = snapshot.getCachedField(key);
+                if (field != null) {
+                    regions.add(key.getRegion());
+                    fields.add(field);
+                }
+            }
+        }
+
+        // Lay the file out before writing it, so it can be mapped in one go
+        int headerSize = 4 * 6 + serializedStageKey.length + serializedView.length + 4;
+        long offset = align(headerSize + 24L * regions.size());
+        long[] offsets = new long[fields.size()];
+        for (int i = 0; i < fields.size(); i ++) {
+            offsets[i] = offset;
+            offset = align(offset + fields.get(i).capacity());
+        }
+
+        // Write to a temporary file first, so the cache file is always complete
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+            buffer.putInt(serializedStageKey.length).put(serializedStageKey);
+            buffer.putInt(serializedView.length).put(serializedView);
+            buffer.putInt(regions.size());
+            for (int i = 0; i < regions.size(); i ++) {
+                Rectangle region = regions.get(i);
+                buffer.putInt(region.x).putInt(region.y).putInt(region.width).putInt(region.height);
+                buffer.putInt((int) offsets[i]).putInt(fields.get(i).capacity());
+            }
+            for (int i = 0; i < fields.size(); i ++) {
+                buffer.put((int) offsets[i], fields.get(i), 0, fields.get(i).capacity());
+            }
+            buffer.force();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Restores the view of a Fractal from a cache file, and keeps the file open so draws of that view read from it.
+    // Returns whether the file was opened, it isn't when it is missing or doesn't belong to the settings anymore. The
+    // Fractal is left alone unless the file is opened.
+    static boolean open(File file, Fractal fractal) throws IOException {
+        sFields = new HashMap<>();
+        if (!file.isFile()) {
+            return false;
+        }
+
+        // The mapping stays valid after the channel is closed
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            byte[] serializedStageKey = new byte[buffer.getInt()];
+            buffer.get(serializedStageKey);
+            String stageKey = new String(serializedStageKey, StandardCharsets.UTF_8);
+            byte[] serializedView = new byte[buffer.getInt()];
+            buffer.get(serializedView);
+            String view = new String(serializedView, StandardCharsets.UTF_8);
+
+            // The view is tried on a snapshot, the Fractal itself only gets it when the whole file checks out. The
+            // view goes before the stage key, as the stage key of a Mandelbrot set includes its center.
+            Fractal snapshot = fractal.snapshot();
+            snapshot.deserializeView(view);
+            if (!snapshot.getStageKey(Fractal.RenderStage.Iteration).equals(stageKey)) {
+                return false;
+            }
+
+            // Every field has to be exactly as large as its region, the draws read it without checking
+            FractalView unpanned = new FractalView(snapshot.getZoom(), 0, 0);
+            int bytesPerPixel = fractal.getCachedFieldBytesPerPixel();
+            Map<FractalIterationCache.FieldKey, ByteBuffer> fields = new HashMap<>();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i ++) {
+                Rectangle region = new Rectangle(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+                int offset = buffer.getInt();
+                int length = buffer.getInt();
+                if (region.width <= 0 || region.height <= 0
+                        || (long) region.width * region.height * bytesPerPixel != length
+                        || offset < 0 || (long) offset + length > buffer.capacity()) {
+                    throw new IOException("Corrupt cache file " + file);
+                }
+                fields.put(new FractalIterationCache.FieldKey(region, width, height, unpanned, stageKey),
+                        buffer.slice(offset, length));
+            }
+            fractal.deserializeView(view);
+            sFields = fields;
+            return true;
+        } catch (BufferUnderflowException | NegativeArraySizeException | NumberFormatException
+                | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt cache file " + file, e);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 3) & ~3L;
+    }
+}
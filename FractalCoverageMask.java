@@ -0,0 +1,113 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.nio.ByteBuffer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Which pixels of a region are covered by the lines or squares of a Fractal,
+ * one byte per pixel that is 1 where it is covered. The coverage doesn't
+ * depend on the colors, so complete masks are cached and when only the colors
+ * change, a region is colored again from its mask instead of walking the
+ * recursion again. Masks are also read from the FractalCacheFile that was
+ * opened last.
+ */
+public class FractalCoverageMask {
+    // Lines drawn on 1 bit images miss pixels, so the mask takes a byte per pixel
+    static final int BYTES_PER_PIXEL = 1;
+
+    // Color that marks a pixel as covered when drawing on the mask
+    private static final Color COVERED = Color.WHITE;
+    private static final IndexColorModel MASK_COLORS = createColorModel(Color.BLACK, COVERED);
+
+    // Complete masks
+    private static final FractalIterationCache<FractalCoverageMask> CACHE = new FractalIterationCache<>(
+            32L * 1024 * 1024, new ToLongFunction<FractalCoverageMask>() {
+                @Override
+                public long applyAsLong(FractalCoverageMask mask) {
+                    return mask.getBytes();
+                }
+            });
+
+    // Masks don't know where they are, they are kept relative to the pan and drawn wherever their region is now
+    private final BufferedImage mImage;
+
+    FractalCoverageMask(int width, int height) {
+        mImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, MASK_COLORS);
+    }
+
+    // Graphics that covers the pixels it draws on, in the coordinates of the viewport when the top left corner of the
+    // mask is at the given location
+    Graphics2D createGraphics(Point location) {
+        Graphics2D g = mImage.createGraphics();
+        g.translate(-location.x, -location.y);
+        g.setColor(COVERED);
+        return g;
+    }
+
+    // The pixels of the mask, row by row
+    byte[] getData() {
+        return ((DataBufferByte) mImage.getRaster().getDataBuffer()).getData();
+    }
+
+    // Draws the mask with one color for the pixels that are covered and another for the ones that aren't. The
+    // colored image shares its pixels with the mask, so this doesn't copy anything.
+    void draw(Graphics g, Point location, Color background, Color foreground) {
+        BufferedImage image = new BufferedImage(createColorModel(background, foreground), mImage.getRaster(), false,
+                null);
+        g.drawImage(image, location.x, location.y, null);
+    }
+
+    private long getBytes() {
+        return (long) mImage.getWidth() * mImage.getHeight() * BYTES_PER_PIXEL;
+    }
+
+    private static IndexColorModel createColorModel(Color background, Color foreground) {
+        return new IndexColorModel(8, 2,
+                new byte[] { (byte) background.getRed(), (byte) foreground.getRed() },
+                new byte[] { (byte) background.getGreen(), (byte) foreground.getGreen() },
+                new byte[] { (byte) background.getBlue(), (byte) foreground.getBlue() });
+    }
+
+    // Gets the complete mask of a region, or null if it is neither in the cache nor in an opened cache file. A mask in
+    // the file with a pixel that is neither 0 nor 1 is damaged, and is left out as well.
+    static FractalCoverageMask get(FractalIterationCache.FieldKey key) {
+        FractalCoverageMask mask = CACHE.get(key);
+        if (mask != null) {
+            return mask;
+        }
+
+        // Only the pages of the file that hold this region are read
+        ByteBuffer field = FractalCacheFile.getField(key);
+        if (field == null) {
+            return null;
+        }
+        Rectangle region = key.getRegion();
+        mask = new FractalCoverageMask(region.width, region.height);
+        byte[] data = mask.getData();
+        field.get(0, data);
+        for (byte pixel : data) {
+            if (pixel != 0 && pixel != 1) {
+                return null;
+            }
+        }
+        put(key, mask);
+        return mask;
+    }
+
+    // The complete mask of a region as it is kept in a cache file, or null if it is not in the cache
+    static ByteBuffer getField(FractalIterationCache.FieldKey key) {
+        FractalCoverageMask mask = CACHE.get(key);
+        return mask != null ? ByteBuffer.wrap(mask.getData()) : null;
+    }
+
+    static void put(FractalIterationCache.FieldKey key, FractalCoverageMask mask) {
+        CACHE.put(key, mask);
+    }
+
+    // Forgets every mask, so the next draws walk the recursion again
+    static void clearCache() {
+        CACHE.clear();
+    }
+}
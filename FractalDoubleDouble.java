@@ -0,0 +1,81 @@
+import java.math.BigDecimal;
+
+/**
+ * A number with about twice the precision of a double, kept as the sum of a
+ * high and a low double where the low part is smaller than half an ulp of the
+ * high part. The rounding errors of every operation are caught in the low part,
+ * using Math.fma for the error of a product.
+ *
+ * Operations change the number in place, so iterating doesn't allocate.
+ */
+public class FractalDoubleDouble {
+    double hi;
+    double lo;
+
+    FractalDoubleDouble(double hi, double lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    // The double nearest to a BigDecimal, plus the double nearest to what is left of it
+    static FractalDoubleDouble valueOf(BigDecimal value) {
+        double hi = value.doubleValue();
+        return new FractalDoubleDouble(hi, value.subtract(new BigDecimal(hi)).doubleValue());
+    }
+
+    void set(FractalDoubleDouble value) {
+        hi = value.hi;
+        lo = value.lo;
+    }
+
+    void add(FractalDoubleDouble value) {
+        add(value.hi, value.lo);
+    }
+
+    void add(double valueHi, double valueLo) {
+        // Add the high and the low parts separately, along with the rounding error of each sum
+        double sumHi = hi + valueHi;
+        double virtualHi = sumHi - hi;
+        double errorHi = (hi - (sumHi - virtualHi)) + (valueHi - virtualHi);
+        double sumLo = lo + valueLo;
+        double virtualLo = sumLo - lo;
+        double errorLo = (lo - (sumLo - virtualLo)) + (valueLo - virtualLo);
+
+        // Fold everything back into two parts
+        errorHi += sumLo;
+        double high = sumHi + errorHi;
+        errorHi -= high - sumHi;
+        errorHi += errorLo;
+        normalize(high, errorHi);
+    }
+
+    void subtract(FractalDoubleDouble value) {
+        add(-value.hi, -value.lo);
+    }
+
+    void multiply(FractalDoubleDouble value) {
+        multiply(value.hi, value.lo);
+    }
+
+    void multiply(double valueHi, double valueLo) {
+        // The product of the high parts exactly, the products with the low parts only matter for the low part
+        double product = hi * valueHi;
+        double error = Math.fma(hi, valueHi, -product) + (hi * valueLo + lo * valueHi);
+        normalize(product, error);
+    }
+
+    void square() {
+        multiply(hi, lo);
+    }
+
+    // Multiplying by 2 is exact
+    void twice() {
+        hi *= 2;
+        lo *= 2;
+    }
+
+    private void normalize(double high, double low) {
+        hi = high + low;
+        lo = low - (hi - high);
+    }
+}
@@ -0,0 +1,900 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToLongFunction;
+
+/**
+ * Base class for escape-time fractals. Splits the viewport into tiles that are
+ * computed in parallel into a shared ARGB raster, which is then drawn at once.
+ *
+ * A frame is computed progressively: first every 16th pixel in both
+ * directions, then every 4th, every 2nd and finally every pixel. Each sample
+ * fills the block up to the next sample, so every pass is a usable preview,
+ * and later passes only compute the pixels that don't have a sample yet. When
+ * the budget runs out halfway, the samples are kept so the next draw of the
+ * same region continues where this one stopped.
+ *
+ * With rectangle subdivision, the last pass only samples the border of each
+ * tile. If the whole border has the same iteration count, the inside is
+ * filled with it, otherwise the rectangle is split in four and the same is
+ * done for every quarter. Because the sets are connected, a uniform border
+ * practically always means a uniform inside, which saves computing large
+ * parts of the set itself.
+ *
+ * Pixels are handed to the kernel in batches, so that when the Vector API is
+ * available, a kernel can iterate several of them side by side.
+ *
+ * Kernels come in several precisions, and each frame uses the cheapest one in
+ * which neighbouring pixels are still told apart: doubles, then double-doubles
+ * once the zoom is too deep for them.
+ *
+ * The iteration counts of complete frames are cached apart from their colors,
+ * so changing a color only maps the counts through a new palette again. With
+ * histogram coloring, the colors are spread evenly over the pixels outside of
+ * the set instead of over the iteration counts, after a sample of the whole
+ * viewport.
+ */
+public abstract class FractalEscapeTime extends Fractal {
+    // Width and height of a single tile in pixels, a multiple of every pass step so blocks don't cross tiles
+    static final int TILE_SIZE = 64;
+
+    // Distance between samples in each pass
+    private static final int[] PASS_STEPS = { 16, 4, 2, 1 };
+
+    // Size of the complex plane that fits in the smallest dimension at zoom 1
+    private static final double PLANE_SIZE = 3;
+
+    // Rectangles this small or smaller are computed pixel by pixel, as they consist mostly of border
+    private static final int MIN_SUBDIVISION = 4;
+
+    // Coarse passes stop subdividing at rectangles this many times their step, and only sample those on their grid
+    private static final int COARSE_SUBDIVISION = 4;
+
+    // Most pixels that are handed to the kernel at once, which is enough for the border of a whole tile
+    private static final int BATCH_SIZE = 4 * TILE_SIZE;
+
+    // Iterated values go up to the escape radius, and rounding errors can grow by about one of its ulps every
+    // iteration. A precision is only used while a pixel is this many times what that adds up to.
+    private static final double ESCAPE_RADIUS = 2;
+    private static final int ERROR_MARGIN = 256;
+
+    // The histogram for histogram coloring samples every this many pixels in both directions
+    private static final int HISTOGRAM_STEP = 8;
+
+    // Most viewports whose histograms are left half sampled, for when their draws come back
+    private static final int MAX_HISTOGRAM_SAMPLINGS = 8;
+
+    // The Vector API is missing unless the JVM was started with --add-modules jdk.incubator.vector
+    private static final boolean VECTOR_SUPPORTED =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    // Iteration counts of complete frames, and the cumulative histograms of whole viewports
+    private static final ToLongFunction<int[]> INT_ARRAY_SIZE = new ToLongFunction<int[]>() {
+        @Override
+        public long applyAsLong(int[] values) {
+            return (long) values.length * 4;
+        }
+    };
+    private static final FractalIterationCache<int[]> ITERATION_CACHE =
+            new FractalIterationCache<>(64L * 1024 * 1024, INT_ARRAY_SIZE);
+    private static final FractalIterationCache<int[]> HISTOGRAM_CACHE =
+            new FractalIterationCache<>(4L * 1024 * 1024, INT_ARRAY_SIZE);
+
+    // Histograms that are being sampled, oldest first. Draws of the same viewport share one, so it is sampled once.
+    private static final LinkedHashMap<FractalIterationCache.FieldKey, HistogramSampling> HISTOGRAM_SAMPLINGS =
+            new LinkedHashMap<>();
+
+    // Frames that were left unfinished because their budget ran out
+    private final Map<ProgressKey, EscapeTimeFrame> mProgress = new HashMap<>();
+
+    FractalEscapeTime(FractalType type) {
+        super(type);
+    }
+
+    @Override
+    boolean draw(Graphics g, int width, int height, FractalRenderBudget budget) {
+        // Only compute the part that actually needs drawing
+        Rectangle region = getDrawBounds(g, width, height);
+        if (region.isEmpty()) {
+            return true;
+        }
+
+        // With histogram coloring, nothing can be colored until the whole viewport has been sampled
+        int[] palette = buildPalette(width, height, budget);
+        if (palette == null) {
+            return false;
+        }
+
+        // When only the coloring changed since this region was computed, color its iteration counts again
+        FractalIterationCache.FieldKey fieldKey = getFieldKey(region, width, height);
+        int[] iterations = ITERATION_CACHE.get(fieldKey);
+        if (iterations != null) {
+            g.drawImage(color(IntBuffer.wrap(iterations), region, palette), region.x, region.y, null);
+            return true;
+        }
+
+        // The same goes for a region that an opened cache file has, which is colored straight from the file. A count
+        // that the palette has no color for means the file is damaged, and then the region is computed instead.
+        ByteBuffer field = FractalCacheFile.getField(fieldKey);
+        if (field != null && isInRange(field.asIntBuffer(), getMaxIterations())) {
+            g.drawImage(color(field.asIntBuffer(), region, palette), region.x, region.y, null);
+            return true;
+        }
+
+        // Continue an earlier draw of the same region if there is one
+        ProgressKey key = new ProgressKey(region, width, height, getView(), getStateKey());
+        EscapeTimeFrame frame = takeProgress(key);
+        if (frame == null) {
+            frame = createFrame(region, width, height, palette);
+            FractalMetrics.get(getFractalType()).recordPrecision(frame.precision);
+        }
+
+        // Refine pass by pass, each pass is only started when the previous one is done
+        AtomicBoolean skipped = new AtomicBoolean();
+        for (int step : PASS_STEPS) {
+            computePass(frame, budget, skipped, step);
+            if (skipped.get()) {
+                break;
+            }
+        }
+
+        // Compare a complete subdivided frame with what computing every pixel gives
+        if (!skipped.get() && frame.subdivide && isVerifySubdivision()) {
+            verifySubdivision(frame, region, width, height);
+        }
+
+        // Keep the samples of unfinished frames for the next draw, and the iteration counts of complete ones
+        if (skipped.get()) {
+            putProgress(key, frame);
+        } else {
+            ITERATION_CACHE.put(fieldKey, frame.iterations);
+        }
+
+        // Don't draw anything when the render was cancelled, the passes that are done are still useful otherwise
+        if (isRenderCancelled()) {
+            return false;
+        }
+
+        // Blit the result
+        g.drawImage(frame.image, region.x, region.y, null);
+        return !skipped.get();
+    }
+
+    // Computes every pixel of a frame again without subdivision and counts the pixels that differ in the metrics
+    private void verifySubdivision(EscapeTimeFrame frame, Rectangle region, int width, int height) {
+        EscapeTimeFrame reference = createFrame(region, width, height, frame.palette, false);
+        AtomicBoolean skipped = new AtomicBoolean();
+        computePass(reference, new FractalRenderBudget(), skipped, 1);
+        if (skipped.get()) {
+            return;
+        }
+
+        int differences = 0;
+        for (int i = 0; i < frame.iterations.length; i ++) {
+            if (frame.iterations[i] != reference.iterations[i]) {
+                differences ++;
+            }
+        }
+        FractalMetrics.get(getFractalType()).recordSubdivisionCheck(frame.iterations.length, differences);
+    }
+
+    // Computes the samples of one pass, the tiles of the frame in parallel on the render scheduler
+    private static void computePass(EscapeTimeFrame frame, FractalRenderBudget budget, AtomicBoolean skipped,
+                                    int step) {
+        int tilesX = (frame.width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (frame.height + TILE_SIZE - 1) / TILE_SIZE;
+        List<TileTask> tasks = new ArrayList<>();
+        for (int tile = 0; tile < tilesX * tilesY; tile ++) {
+            tasks.add(new TileTask(frame, budget, skipped, step, tilesX, tile));
+        }
+        FractalRenderScheduler.SHARED.invokeAll(tasks);
+    }
+
+    // Prepares a frame in which nothing has been computed yet
+    private EscapeTimeFrame createFrame(Rectangle region, int width, int height, int[] palette) {
+        return createFrame(region, width, height, palette, isSubdivision());
+    }
+
+    private EscapeTimeFrame createFrame(Rectangle region, int width, int height, int[] palette, boolean subdivide) {
+        // Calculate the size of a pixel on the complex plane and the point in the middle of the viewport
+        double scale = getScale(width, height);
+        double centerX = getCenterX() - getPanX() * scale;
+        double centerY = getCenterY() - getPanY() * scale;
+        Precision precision = getPrecision(scale);
+        Kernel kernel = createViewKernel(precision, width, height);
+
+        // Points are passed to the kernel relative to the middle of the viewport, this is the region's top left pixel
+        double x0 = (region.x - width / 2d) * scale;
+        double y0 = (region.y - height / 2d) * scale;
+
+        // Position of the origin in pixels, doubled so that it is an integer when snapped to half pixels
+        long mirrorX = Math.round((-centerX - x0) / scale * 2);
+        long mirrorY = Math.round((-centerY - y0) / scale * 2);
+
+        // Does the fractal look the same when rotated 180 degrees and is the origin within the region?
+        if (isPointSymmetric() && mirrorX >= 0 && mirrorX < region.width * 2L
+                && mirrorY >= 0 && mirrorY < region.height * 2L) {
+            // Snap the origin to the pixel grid so every pixel has an exact mirror image
+            x0 = -centerX - mirrorX * scale / 2;
+            y0 = -centerY - mirrorY * scale / 2;
+
+            // Compute the larger of the halves above and below the origin, the other half takes its mirror image.
+            // Rounding makes mirror images differ slightly, so this has to be the same half for every pass.
+            int split = (int) (mirrorY / 2);
+            int computedTop;
+            int computedBottom;
+            if (split >= region.height / 2) {
+                computedTop = 0;
+                computedBottom = split + 1;
+            } else {
+                computedTop = (int) ((mirrorY + 1) / 2);
+                computedBottom = region.height;
+            }
+
+            return new EscapeTimeFrame(region.width, region.height, precision, kernel, x0, y0, scale,
+                    getMaxIterations(), palette, (int) mirrorX, (int) mirrorY, computedTop,
+                    computedBottom, subdivide);
+        }
+
+        return new EscapeTimeFrame(region.width, region.height, precision, kernel, x0, y0, scale, getMaxIterations(),
+                palette, -1, -1, 0, region.height, subdivide);
+    }
+
+    // Prepares the kernel for the whole viewport, with the Vector API if possible
+    private Kernel createViewKernel(Precision precision, int width, int height) {
+        double scale = getScale(width, height);
+        double centerX = getCenterX() - getPanX() * scale;
+        double centerY = getCenterY() - getPanY() * scale;
+        Kernel kernel = createKernel(precision, centerX, centerY, scale);
+        if (isVectorKernel() && isVectorSupported()) {
+            Kernel vectorKernel = createVectorKernel(precision, kernel, centerX, centerY, scale);
+            if (vectorKernel != null) {
+                kernel = vectorKernel;
+            }
+        }
+        return kernel;
+    }
+
+    // Maps iteration counts that were computed before through a palette, in parallel
+    private static BufferedImage color(IntBuffer iterations, Rectangle region, int[] palette) {
+        BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_ARGB);
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Arrays.parallelSetAll(raster, new IntUnaryOperator() {
+            @Override
+            public int applyAsInt(int index) {
+                return palette[iterations.get(index)];
+            }
+        });
+        return image;
+    }
+
+    // Whether every iteration count is between 0 and the maximum number of iterations
+    private static boolean isInRange(IntBuffer iterations, int maxIterations) {
+        for (int i = 0; i < iterations.limit(); i ++) {
+            int count = iterations.get(i);
+            if (count < 0 || count > maxIterations) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private EscapeTimeFrame takeProgress(ProgressKey key) {
+        synchronized (mProgress) {
+            return mProgress.remove(key);
+        }
+    }
+
+    private void putProgress(ProgressKey key, EscapeTimeFrame frame) {
+        synchronized (mProgress) {
+            mProgress.put(key, frame);
+        }
+    }
+
+    // Size of one pixel on the complex plane
+    double getScale(int width, int height) {
+        return PLANE_SIZE / (Math.min(width, height) * getZoom());
+    }
+
+    // The cheapest precision whose rounding errors stay well below a pixel, or doubles if it isn't automatic
+    Precision getPrecision(double scale) {
+        if (!isAutomaticPrecision()) {
+            return Precision.Double;
+        }
+        // Floats would be cheaper at low zoom, but they lose the orbits that stay close to the edge for many
+        // iterations, which changes pixels there however small the rounding errors are to the pixels
+        if (isPrecise(Precision.Double, scale)) {
+            return Precision.Double;
+        }
+        return Precision.DoubleDouble;
+    }
+
+    // Whether the rounding errors of a precision stay well below a pixel, perturbation is as precise as it needs
+    boolean isPrecise(Precision precision, double scale) {
+        double ulp = Math.ulp(ESCAPE_RADIUS);
+        switch (precision) {
+            case Double:
+                break;
+            case DoubleDouble:
+                // The low part holds what the high part rounds away
+                ulp *= Math.ulp(1d);
+                break;
+            default:
+                return true;
+        }
+        return scale >= (double) ERROR_MARGIN * getMaxIterations() * ulp;
+    }
+
+    // Builds a lookup table from iteration count to ARGB value, the last entry is used for the inside of the set.
+    // Returns null if the budget ran out before the histogram for histogram coloring was sampled.
+    private int[] buildPalette(int width, int height, FractalRenderBudget budget) {
+        int[] histogram = null;
+        if (isHistogramColoring()) {
+            histogram = getCumulativeHistogram(width, height, budget);
+            if (histogram == null) {
+                return null;
+            }
+        }
+
+        int maxIterations = getMaxIterations();
+        int[] palette = new int[maxIterations + 1];
+        Color outer = getOuterColor();
+        Color edge = getEdgeColor();
+
+        for (int i = 0; i < maxIterations; i ++) {
+            double t;
+            if (histogram != null && histogram[maxIterations - 1] > 0) {
+                // The share of the samples outside of the set that escaped this early
+                t = (double) histogram[i] / histogram[maxIterations - 1];
+            } else {
+                // Take the square root so the colors near the edge are spread out a bit more
+                t = Math.sqrt((double) i / maxIterations);
+            }
+            palette[i] = 0xff000000
+                    | interpolate(outer.getRed(), edge.getRed(), t) << 16
+                    | interpolate(outer.getGreen(), edge.getGreen(), t) << 8
+                    | interpolate(outer.getBlue(), edge.getBlue(), t);
+        }
+        palette[maxIterations] = 0xff000000 | getInsideColor().getRGB();
+
+        return palette;
+    }
+
+    private static int interpolate(int from, int to, double t) {
+        return (int) Math.round(from + (to - from) * t);
+    }
+
+    // Gets the number of samples of the whole viewport that escaped at or before every iteration count, or null if
+    // the budget ran out first. The histogram is shared by all regions of the viewport, so it is only sampled once and
+    // colors match everywhere. Draws that need it while it is being sampled wait for it, and the rows that a draw
+    // sampled before its budget ran out are kept for the next one.
+    private int[] getCumulativeHistogram(int width, int height, FractalRenderBudget budget) {
+        FractalIterationCache.FieldKey key = getFieldKey(new Rectangle(width, height), width, height);
+        int[] histogram = HISTOGRAM_CACHE.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+
+        HistogramSampling sampling = getHistogramSampling(key, getMaxIterations());
+        synchronized (sampling) {
+            // Another draw may have finished it while this one was waiting
+            if (sampling.nextY >= height) {
+                return sampling.histogram;
+            }
+
+            // Sample a grid over the viewport row by row, relative to the middle of the viewport like every point
+            double scale = getScale(width, height);
+            Kernel kernel = createViewKernel(getPrecision(scale), width, height);
+            int maxIterations = getMaxIterations();
+            int columns = (width + HISTOGRAM_STEP - 1) / HISTOGRAM_STEP;
+            double[] x = new double[columns];
+            double[] y = new double[columns];
+            int[] iterations = new int[columns];
+            for (; sampling.nextY < height; sampling.nextY += HISTOGRAM_STEP) {
+                if (budget.isExhausted() || isRenderCancelled()) {
+                    return null;
+                }
+
+                for (int i = 0; i < columns; i ++) {
+                    x[i] = (i * HISTOGRAM_STEP - width / 2d) * scale;
+                    y[i] = (sampling.nextY - height / 2d) * scale;
+                }
+                kernel.iterate(x, y, iterations, columns, maxIterations);
+                for (int i = 0; i < columns; i ++) {
+                    sampling.histogram[iterations[i]] ++;
+                }
+            }
+
+            // Sum the counts up, which is done in parallel for large iteration counts
+            Arrays.parallelPrefix(sampling.histogram, new IntBinaryOperator() {
+                @Override
+                public int applyAsInt(int left, int right) {
+                    return left + right;
+                }
+            });
+
+            HISTOGRAM_CACHE.put(key, sampling.histogram);
+        }
+
+        synchronized (HISTOGRAM_SAMPLINGS) {
+            HISTOGRAM_SAMPLINGS.remove(key);
+        }
+        return sampling.histogram;
+    }
+
+    // Gets the sampling of a viewport's histogram, starting one if there is none
+    private static HistogramSampling getHistogramSampling(FractalIterationCache.FieldKey key, int maxIterations) {
+        synchronized (HISTOGRAM_SAMPLINGS) {
+            HistogramSampling sampling = HISTOGRAM_SAMPLINGS.get(key);
+            if (sampling == null) {
+                sampling = new HistogramSampling(maxIterations);
+                HISTOGRAM_SAMPLINGS.put(key, sampling);
+
+                // Forget the viewports that were left the longest ago
+                Iterator<HistogramSampling> iterator = HISTOGRAM_SAMPLINGS.values().iterator();
+                while (HISTOGRAM_SAMPLINGS.size() > MAX_HISTOGRAM_SAMPLINGS) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            return sampling;
+        }
+    }
+
+    // The iteration counts of a complete region, as ints in the byte order of cache files
+    @Override
+    ByteBuffer getCachedField(FractalIterationCache.FieldKey key) {
+        int[] iterations = ITERATION_CACHE.get(key);
+        if (iterations == null) {
+            return null;
+        }
+        ByteBuffer field = ByteBuffer.allocate(iterations.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        field.asIntBuffer().put(iterations);
+        return field;
+    }
+
+    @Override
+    int getCachedFieldBytesPerPixel() {
+        return Integer.BYTES;
+    }
+
+    // Forgets every iteration count that was computed, so the next draws compute them again
+    static void clearIterationCache() {
+        ITERATION_CACHE.clear();
+        HISTOGRAM_CACHE.clear();
+        synchronized (HISTOGRAM_SAMPLINGS) {
+            HISTOGRAM_SAMPLINGS.clear();
+        }
+    }
+
+    // Whether the vector kernels can be used
+    static boolean isVectorSupported() {
+        return VECTOR_SUPPORTED;
+    }
+
+    // Whether the fractal is symmetric around the origin, so half of it can be mirrored
+    boolean isPointSymmetric() {
+        return false;
+    }
+
+    // The origin, but only when every pixel has an exact mirror image, which is when the origin lies on a pixel or
+    // right between two
+    @Override
+    Point getSymmetryCenter(int width, int height) {
+        if (!isPointSymmetric()) {
+            return null;
+        }
+        double scale = getScale(width, height);
+        double x = width - getCenterX() / scale * 2;
+        double y = height - getCenterY() / scale * 2;
+        if (x != Math.rint(x) || y != Math.rint(y) || Math.abs(x) > Integer.MAX_VALUE
+                || Math.abs(y) > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new Point((int) x, (int) y);
+    }
+
+    // Coordinates of the complex plane that appear in the center of the viewport when there is no pan
+    abstract double getCenterX();
+
+    abstract double getCenterY();
+
+    // Prepares the iteration of a frame around the given point in the middle of the viewport
+    abstract Kernel createKernel(Precision precision, double centerX, double centerY, double scale);
+
+    // Prepares a kernel that iterates several points at once with the Vector API, or returns null if there is none
+    Kernel createVectorKernel(Precision precision, Kernel scalarKernel, double centerX, double centerY,
+                              double scale) {
+        return null;
+    }
+
+    abstract int getMaxIterations();
+
+    abstract Color getInsideColor();
+
+    abstract Color getOuterColor();
+
+    abstract Color getEdgeColor();
+
+    // Whether the last pass subdivides rectangles instead of computing every pixel
+    abstract boolean isSubdivision();
+
+    // Whether subdivided frames are checked against computing every pixel, which is as slow as not subdividing
+    abstract boolean isVerifySubdivision();
+
+    // Whether the vector kernel is used when the Vector API is available
+    abstract boolean isVectorKernel();
+
+    // Whether the precision follows the zoom, otherwise doubles are used
+    abstract boolean isAutomaticPrecision();
+
+    // Whether the colors are spread evenly over the pixels, instead of over the iteration counts
+    abstract boolean isHistogramColoring();
+
+    // The arithmetic a kernel iterates with
+    enum Precision {
+        Double("double"), DoubleDouble("double-double"), Perturbation("perturbation");
+
+        private final String mName;
+
+        Precision(String name) {
+            mName = name;
+        }
+
+        String getName() {
+            return mName;
+        }
+    }
+
+    // Iterates the points of a single frame
+    interface Kernel {
+        // Returns the number of iterations it took for the point to escape, or maxIterations if it did not.
+        // The point is given relative to the middle of the viewport.
+        int iterate(double x, double y, int maxIterations);
+
+        // Iterates a number of points at once, storing the results in iterations. Has to give exactly the same
+        // results as iterating them one by one.
+        default void iterate(double[] x, double[] y, int[] iterations, int count, int maxIterations) {
+            for (int i = 0; i < count; i ++) {
+                iterations[i] = iterate(x[i], y[i], maxIterations);
+            }
+        }
+    }
+
+    // The histogram of a viewport as far as it has been sampled, it is cumulative once every row is
+    private static class HistogramSampling {
+        final int[] histogram;
+
+        // The pixel row that is sampled next
+        int nextY;
+
+        HistogramSampling(int maxIterations) {
+            this.histogram = new int[maxIterations + 1];
+        }
+    }
+
+    // Everything a tile needs to know about the frame it is part of, along with what has been computed so far
+    private static class EscapeTimeFrame {
+        final BufferedImage image;
+        final int[] raster;
+
+        // Iteration count of every pixel that was sampled, -1 for the others
+        final int[] iterations;
+
+        final int width;
+        final int height;
+        final Precision precision;
+        final Kernel kernel;
+        final double x0;
+        final double y0;
+        final double scale;
+        final int maxIterations;
+        final int[] palette;
+
+        // Doubled pixel position of the origin, -1 when the frame isn't mirrored
+        final int mirrorX;
+        final int mirrorY;
+
+        // Rows that are computed, the others are the mirror image of these where possible
+        final int computedTop;
+        final int computedBottom;
+
+        // Whether the last pass subdivides rectangles
+        final boolean subdivide;
+
+        EscapeTimeFrame(int width, int height, Precision precision, Kernel kernel, double x0, double y0,
+                        double scale, int maxIterations, int[] palette, int mirrorX, int mirrorY, int computedTop,
+                        int computedBottom, boolean subdivide) {
+            this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            this.raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            this.iterations = new int[width * height];
+            Arrays.fill(iterations, -1);
+            this.width = width;
+            this.height = height;
+            this.precision = precision;
+            this.kernel = kernel;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.scale = scale;
+            this.maxIterations = maxIterations;
+            this.palette = palette;
+            this.mirrorX = mirrorX;
+            this.mirrorY = mirrorY;
+            this.computedTop = computedTop;
+            this.computedBottom = computedBottom;
+            this.subdivide = subdivide;
+        }
+    }
+
+    // Identifies the region of a draw, unfinished frames are only continued when everything is the same
+    private static class ProgressKey {
+        private final Rectangle mRegion;
+        private final int mWidth;
+        private final int mHeight;
+        private final FractalView mView;
+        private final String mStateKey;
+
+        ProgressKey(Rectangle region, int width, int height, FractalView view, String stateKey) {
+            mRegion = new Rectangle(region);
+            mWidth = width;
+            mHeight = height;
+            mView = view;
+            mStateKey = stateKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ProgressKey)) {
+                return false;
+            }
+            ProgressKey other = (ProgressKey) o;
+            return mRegion.equals(other.mRegion) && mWidth == other.mWidth && mHeight == other.mHeight
+                    && mView.equals(other.mView) && mStateKey.equals(other.mStateKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mRegion, mWidth, mHeight, mView, mStateKey);
+        }
+    }
+
+    // Computes the samples of one pass within a single tile
+    private static class TileTask implements Runnable {
+        private final EscapeTimeFrame mFrame;
+        private final FractalRenderBudget mBudget;
+        private final AtomicBoolean mSkipped;
+        private final int mStep;
+        private final int mTilesX;
+        private final int mTile;
+
+        // Work done by this tile, only used by the thread that computes it
+        private long mPixels;
+        private long mIterations;
+
+        // Pixels waiting for computeQueued() and the points that go to the kernel, only used for a single tile
+        private int[] mQueuedX;
+        private int[] mQueuedY;
+        private int mQueued;
+        private double[] mPointX;
+        private double[] mPointY;
+        private int[] mPointIndex;
+        private int[] mPointIterations;
+
+        TileTask(EscapeTimeFrame frame, FractalRenderBudget budget, AtomicBoolean skipped, int step, int tilesX,
+                 int tile) {
+            mFrame = frame;
+            mBudget = budget;
+            mSkipped = skipped;
+            mStep = step;
+            mTilesX = tilesX;
+            mTile = tile;
+        }
+
+        @Override
+        public void run() {
+            // Stop when the frame is no longer needed or has taken long enough
+            if (mBudget.isExhausted()) {
+                mSkipped.set(true);
+                return;
+            }
+
+            // Find the pixel bounds of this tile
+            EscapeTimeFrame frame = mFrame;
+            int left = (mTile % mTilesX) * TILE_SIZE;
+            int top = (mTile / mTilesX) * TILE_SIZE;
+            int right = Math.min(left + TILE_SIZE, frame.width);
+            int bottom = Math.min(top + TILE_SIZE, frame.height);
+
+            mQueuedX = new int[BATCH_SIZE];
+            mQueuedY = new int[BATCH_SIZE];
+            mPointX = new double[BATCH_SIZE];
+            mPointY = new double[BATCH_SIZE];
+            mPointIndex = new int[BATCH_SIZE];
+            mPointIterations = new int[BATCH_SIZE];
+
+            if (frame.subdivide) {
+                subdivide(left, top, right - 1, bottom - 1);
+            } else {
+                sample(left, top, right - 1, bottom - 1);
+            }
+
+            mBudget.addPixels(mPixels, mIterations);
+        }
+
+        // Samples the pixels of a rectangle, given by its inclusive bounds, that are on the grid of this pass
+        private void sample(int left, int top, int right, int bottom) {
+            EscapeTimeFrame frame = mFrame;
+            int firstX = (left + mStep - 1) / mStep * mStep;
+            int firstY = (top + mStep - 1) / mStep * mStep;
+            for (int py = firstY; py <= bottom; py += mStep) {
+                // Samples of earlier passes or draws are kept
+                for (int px = firstX; px <= right; px += mStep) {
+                    if (frame.iterations[py * frame.width + px] < 0) {
+                        queue(px, py);
+                    }
+                }
+                computeQueued();
+
+                // Fill the block up to the next sample, finer passes overwrite the parts they sample
+                for (int i = 0; i < mQueued; i ++) {
+                    int px = mQueuedX[i];
+                    fill(px, py, Math.min(px + mStep - 1, right), Math.min(py + mStep - 1, bottom),
+                            frame.iterations[py * frame.width + px]);
+                }
+                mQueued = 0;
+            }
+        }
+
+        // Fills the pixels of a rectangle, given by its inclusive bounds, whose border has been sampled. When the
+        // border is uniform the inside gets the same value, otherwise the rectangle is split in four. Coarse passes
+        // stop splitting earlier and sample what is left on their grid, the rectangles they proved uniform are
+        // skipped by the finer passes and the borders they sampled are the ones the finest pass needs anyway.
+        private void subdivide(int left, int top, int right, int bottom) {
+            EscapeTimeFrame frame = mFrame;
+
+            // Small rectangles are sampled on the grid of a coarse pass, or computed completely
+            int size = mStep == 1 ? MIN_SUBDIVISION : mStep * COARSE_SUBDIVISION;
+            if (right - left <= size || bottom - top <= size) {
+                if (mStep > 1) {
+                    sample(left, top, right, bottom);
+                    return;
+                }
+                for (int py = top; py <= bottom; py ++) {
+                    for (int px = left; px <= right; px ++) {
+                        queue(px, py);
+                    }
+                    computeQueued();
+                    mQueued = 0;
+
+                    for (int px = left; px <= right; px ++) {
+                        frame.raster[py * frame.width + px] = frame.palette[frame.iterations[py * frame.width + px]];
+                    }
+                }
+                return;
+            }
+
+            // Sample the whole border, the quarters share it so nothing is computed for nothing
+            for (int px = left; px <= right; px ++) {
+                queue(px, top);
+                queue(px, bottom);
+            }
+            for (int py = top + 1; py < bottom; py ++) {
+                queue(left, py);
+                queue(right, py);
+            }
+            computeQueued();
+
+            int iteration = frame.iterations[top * frame.width + left];
+            boolean uniform = true;
+            for (int i = 0; i < mQueued && uniform; i ++) {
+                uniform = frame.iterations[mQueuedY[i] * frame.width + mQueuedX[i]] == iteration;
+            }
+            mQueued = 0;
+
+            // Samples that earlier passes took inside of it have to agree as well
+            for (int py = top + 1; uniform && py < bottom; py ++) {
+                for (int px = left + 1; px < right; px ++) {
+                    int sampled = frame.iterations[py * frame.width + px];
+                    if (sampled >= 0 && sampled != iteration) {
+                        uniform = false;
+                        break;
+                    }
+                }
+            }
+
+            if (uniform) {
+                for (int py = top + 1; py < bottom; py ++) {
+                    int index = py * frame.width;
+                    for (int px = left + 1; px < right; px ++) {
+                        frame.iterations[index + px] = iteration;
+                    }
+                }
+                fill(left, top, right, bottom, iteration);
+                return;
+            }
+
+            // The quarters share the lines through the middle
+            int middleX = (left + right) >>> 1;
+            int middleY = (top + bottom) >>> 1;
+            subdivide(left, top, middleX, middleY);
+            subdivide(middleX, top, right, middleY);
+            subdivide(left, middleY, middleX, bottom);
+            subdivide(middleX, middleY, right, bottom);
+        }
+
+        // Adds a pixel to the ones computeQueued() takes care of
+        private void queue(int px, int py) {
+            mQueuedX[mQueued] = px;
+            mQueuedY[mQueued] = py;
+            mQueued ++;
+        }
+
+        // Makes sure every queued pixel has an iteration count. The pixels that have to be computed are handed to
+        // the kernel at once, so it can iterate them side by side.
+        private void computeQueued() {
+            EscapeTimeFrame frame = mFrame;
+            int count = 0;
+
+            for (int i = 0; i < mQueued; i ++) {
+                int px = mQueuedX[i];
+                int py = mQueuedY[i];
+                int index = py * frame.width + px;
+                if (frame.iterations[index] >= 0) {
+                    continue;
+                }
+
+                // Pixels outside of the computed half have the value of their mirror image in the computed half
+                int mirrorPx = frame.mirrorX - px;
+                int mirrorPy = frame.mirrorY - py;
+                boolean computedRow = py >= frame.computedTop && py < frame.computedBottom;
+                boolean mirrored = frame.mirrorY >= 0 && mirrorPy >= 0 && mirrorPy < frame.height
+                        && mirrorPx >= 0 && mirrorPx < frame.width
+                        && computedRow != (mirrorPy >= frame.computedTop && mirrorPy < frame.computedBottom);
+
+                // When the mirror image was sampled already, it has the same value
+                if (mirrored && frame.iterations[mirrorPy * frame.width + mirrorPx] >= 0) {
+                    frame.iterations[index] = frame.iterations[mirrorPy * frame.width + mirrorPx];
+                    continue;
+                }
+
+                // Otherwise compute it, at the position of the pixel in the computed half
+                int samplePx = mirrored && !computedRow ? mirrorPx : px;
+                int samplePy = mirrored && !computedRow ? mirrorPy : py;
+                mPointX[count] = frame.x0 + samplePx * frame.scale;
+                mPointY[count] = frame.y0 + samplePy * frame.scale;
+                mPointIndex[count] = index;
+                count ++;
+            }
+
+            frame.kernel.iterate(mPointX, mPointY, mPointIterations, count, frame.maxIterations);
+            for (int i = 0; i < count; i ++) {
+                frame.iterations[mPointIndex[i]] = mPointIterations[i];
+                mIterations += mPointIterations[i];
+            }
+            mPixels += count;
+        }
+
+        // Colors a rectangle, given by its inclusive bounds, after an iteration count
+        private void fill(int left, int top, int right, int bottom, int iteration) {
+            EscapeTimeFrame frame = mFrame;
+            int color = frame.palette[iteration];
+            for (int py = top; py <= bottom; py ++) {
+                Arrays.fill(frame.raster, py * frame.width + left, py * frame.width + right + 1, color);
+            }
+        }
+    }
+}
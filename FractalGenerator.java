@@ -1,5 +1,6 @@
 /**
- * Main application class. Basically starts the GUI.
+ * Main application class. Starts the GUI, or renders settings files
+ * headlessly when any arguments are given.
  */
 public class FractalGenerator {
     private void run() {
@@ -7,6 +8,20 @@ public class FractalGenerator {
     }
 
     public static void main(String... args) {
-        new FractalGenerator().run();
+        if (args.length == 0) {
+            new FractalGenerator().run();
+            return;
+        }
+
+        // No windows are needed in batch mode, so don't require a display
+        System.setProperty("java.awt.headless", "true");
+        try {
+            System.exit(new FractalGeneratorBatch(args).run() == 0 ? 0 : 1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
     }
 }
@@ -0,0 +1,209 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Headless batch renderer. Renders settings files as saved by the GUI to PNG
+ * images, one job per file, running the jobs in parallel. With --frames, every
+ * file is exported as a zoom animation from --zoom/--pan to --zoom-to/--pan-to
+ * into a directory of its own instead.
+ *
+ * Usage: [--size WIDTHxHEIGHT] [--zoom ZOOM] [--pan X,Y] [--output DIRECTORY]
+ *        [--frames COUNT --zoom-to ZOOM --pan-to X,Y] FILE...
+ */
+public class FractalGeneratorBatch {
+    private static final String USAGE =
+            "Usage: [--size WIDTHxHEIGHT] [--zoom ZOOM] [--pan X,Y] [--output DIRECTORY]\n"
+                    + "       [--frames COUNT --zoom-to ZOOM --pan-to X,Y] FILE...";
+
+    private int mWidth = 1920;
+    private int mHeight = 1080;
+    private double mZoom = 0.75;
+    private int mPanX = 0;
+    private int mPanY = 0;
+    private File mOutputDirectory = new File(".");
+    private int mFrames = 0;
+    private double mZoomTo = 0.75;
+    private int mPanToX = 0;
+    private int mPanToY = 0;
+    private final List<File> mFiles = new ArrayList<>();
+
+    FractalGeneratorBatch(String... args) {
+        for (int i = 0; i < args.length; i ++) {
+            switch (args[i]) {
+                case "--size": {
+                    int[] size = getIntPair(args, ++ i, "x");
+                    mWidth = size[0];
+                    mHeight = size[1];
+                    break;
+                }
+                case "--zoom":
+                    mZoom = getDouble(args, ++ i);
+                    break;
+                case "--pan": {
+                    int[] pan = getIntPair(args, ++ i, ",");
+                    mPanX = pan[0];
+                    mPanY = pan[1];
+                    break;
+                }
+                case "--output":
+                    mOutputDirectory = new File(getArgument(args, ++ i));
+                    break;
+                case "--frames":
+                    mFrames = getInt(args, ++ i);
+                    break;
+                case "--zoom-to":
+                    mZoomTo = getDouble(args, ++ i);
+                    break;
+                case "--pan-to": {
+                    int[] pan = getIntPair(args, ++ i, ",");
+                    mPanToX = pan[0];
+                    mPanToY = pan[1];
+                    break;
+                }
+                default:
+                    mFiles.add(new File(args[i]));
+            }
+        }
+
+        if (mFiles.isEmpty() || mWidth <= 0 || mHeight <= 0 || mZoom <= 0 || mFrames < 0 || mZoomTo <= 0) {
+            throw new IllegalArgumentException(USAGE);
+        }
+    }
+
+    private static String getArgument(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    private static int getInt(String[] args, int index) {
+        return getInt(args, index, getArgument(args, index));
+    }
+
+    private static int getInt(String[] args, int index, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw getInvalidValue(args, index);
+        }
+    }
+
+    private static double getDouble(String[] args, int index) {
+        try {
+            return Double.parseDouble(getArgument(args, index));
+        } catch (NumberFormatException e) {
+            throw getInvalidValue(args, index);
+        }
+    }
+
+    // Parses two ints separated by the separator, like the WIDTHxHEIGHT of --size
+    private static int[] getIntPair(String[] args, int index, String separator) {
+        String[] split = getArgument(args, index).split(separator, -1);
+        if (split.length != 2) {
+            throw getInvalidValue(args, index);
+        }
+        return new int[] {getInt(args, index, split[0]), getInt(args, index, split[1])};
+    }
+
+    private static IllegalArgumentException getInvalidValue(String[] args, int index) {
+        return new IllegalArgumentException("Invalid value for " + args[index - 1] + ": " + args[index] + "\n" + USAGE);
+    }
+
+    // Renders all files and returns the number of files that failed
+    int run() throws InterruptedException {
+        if (mFrames > 0) {
+            return export();
+        }
+
+        if (!mOutputDirectory.isDirectory() && !mOutputDirectory.mkdirs()) {
+            System.err.println("Could not create " + mOutputDirectory);
+            return mFiles.size();
+        }
+
+        // One job per file, spread over all cores
+        List<Future<File>> results = new ArrayList<>();
+        for (int i = 0; i < mFiles.size(); i ++) {
+            File file = mFiles.get(i);
+            results.add(FractalRenderScheduler.SHARED.submit(new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    return render(file);
+                }
+            }, FractalRenderScheduler.Priority.Export, i));
+        }
+
+        // Report the results in the order the files were given
+        int failed = 0;
+        for (int i = 0; i < results.size(); i ++) {
+            try {
+                System.out.println(mFiles.get(i) + " -> " + results.get(i).get());
+            } catch (ExecutionException e) {
+                System.err.println(mFiles.get(i) + ": " + e.getCause().getMessage());
+                failed ++;
+            }
+        }
+        return failed;
+    }
+
+    // Exports a zoom animation for every file, one file at a time since the frames are rendered in parallel
+    private int export() throws InterruptedException {
+        int failed = 0;
+        for (File file : mFiles) {
+            try {
+                File directory = new File(mOutputDirectory, getName(file));
+                FractalZoomExporter exporter = new FractalZoomExporter(load(file),
+                        new FractalView(mZoom, mPanX, mPanY), new FractalView(mZoomTo, mPanToX, mPanToY),
+                        mFrames, mWidth, mHeight, directory);
+                System.out.println(file + " -> " + directory + " (" + exporter.export() + " frames written)");
+            } catch (IOException e) {
+                System.err.println(file + ": " + e.getMessage());
+                failed ++;
+            }
+        }
+        return failed;
+    }
+
+    private static Fractal load(File file) throws IOException {
+        Fractal fractal = Fractal.load(file);
+        if (fractal == null) {
+            throw new IOException("Unknown fractal type");
+        }
+        return fractal;
+    }
+
+    // Name for the output, after the settings file
+    private static String getName(File file) {
+        String name = file.getName();
+        if (name.toLowerCase().endsWith(".txt")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return name;
+    }
+
+    // Loads a settings file, renders it and writes it as PNG to the output directory
+    private File render(File file) throws IOException {
+        Fractal fractal = load(file);
+        fractal.setView(mZoom, mPanX, mPanY);
+
+        BufferedImage image = new BufferedImage(mWidth, mHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            fractal.draw(g, mWidth, mHeight);
+        } finally {
+            g.dispose();
+        }
+
+        File output = new File(mOutputDirectory, getName(file) + ".png");
+        ImageIO.write(image, "png", output);
+        return output;
+    }
+}
@@ -3,9 +3,8 @@ import javax.swing.filechooser.FileFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.nio.file.Files;
 
 /**
  * GUI class for FractalGenerator.
@@ -17,6 +16,9 @@ public class FractalGeneratorGui {
     private FractalGeneratorGuiViewerPanel mViewerPanel;
     private FractalGeneratorGuiConfigPanel mConfigPanel;
 
+    // Whether saving the settings also writes the view and what was computed for it to a cache file
+    private boolean mSaveCacheFile = true;
+
     FractalGeneratorGui() {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
@@ -75,6 +77,17 @@ public class FractalGeneratorGui {
                     }
                 });
 
+                JCheckBoxMenuItem cacheFileToggle = new JCheckBoxMenuItem("Save cache file", mSaveCacheFile);
+                cacheFileToggle.setMnemonic(KeyEvent.VK_C);
+                fileMenu.add(cacheFileToggle);
+
+                cacheFileToggle.addItemListener(new ItemListener() {
+                    @Override
+                    public void itemStateChanged(ItemEvent e) {
+                        mSaveCacheFile = e.getStateChange() == ItemEvent.SELECTED;
+                    }
+                });
+
                 JMenuItem exitButton = new JMenuItem("Exit");
                 exitButton.setMnemonic(KeyEvent.VK_E);
                 fileMenu.add(exitButton);
@@ -224,6 +237,18 @@ public class FractalGeneratorGui {
                     });
                 }
 
+                // Create a toggle for the render statistics on top of the viewer
+                JCheckBoxMenuItem metricsToggle = new JCheckBoxMenuItem("Render statistics", false);
+                metricsToggle.setMnemonic(KeyEvent.VK_T);
+                fractalsMenu.add(metricsToggle);
+
+                metricsToggle.addItemListener(new ItemListener() {
+                    @Override
+                    public void itemStateChanged(ItemEvent e) {
+                        mViewerPanel.setShowMetrics(e.getStateChange() == ItemEvent.SELECTED);
+                    }
+                });
+
                 // Add reset item
                 JMenuItem resetButton = new JMenuItem("Reset view");
                 resetButton.setMnemonic(KeyEvent.VK_R);
@@ -235,8 +260,7 @@ public class FractalGeneratorGui {
                     public void actionPerformed(ActionEvent e) {
                         if (mFractal != null) {
                             // Reset zoom and pan
-                            mFractal.zoom((0.75 - mFractal.getZoom()) * 10);
-                            mFractal.pan(0, 0);
+                            mFractal.resetView();
                         }
                     }
                 });
@@ -273,23 +297,18 @@ public class FractalGeneratorGui {
             // Find the file
             File file = fileChooser.getSelectedFile();
             try {
-                // Read the file's contents
-                String contents = new Scanner(file, "UTF-8").useDelimiter("\\Z").next();
-
-                // Split by line
-                String[] split = contents.split("\n");
-
                 // Get the fractal associated with this file into mFractal
-                mFractal = Fractal.getFractal(Fractal.getFractalType(split[0]));
-
-                // Get the FractalSettings
-                FractalSetting[] fractalSettings = mFractal.getFractalSettings();
+                Fractal fractal = Fractal.load(file);
+                if (fractal == null) {
+                    return;
+                }
+                mFractal = fractal;
 
-                // Deserialize all lines into their associated FractalSetting
-                int pointer = 1;
-                for (FractalSetting fractalSetting : fractalSettings) {
-                    deserializeFractalSetting(fractalSetting, split[pointer]);
-                    pointer ++;
+                // Continue from the view that was saved along with the settings, the settings work without it
+                try {
+                    FractalCacheFile.open(FractalCacheFile.getFile(file), mFractal);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
 
                 // Set the fractal object in both of the panels
@@ -313,49 +332,17 @@ public class FractalGeneratorGui {
 
             // Write to it
             try {
-                // Open a stream for writing
-                FileOutputStream fos = new FileOutputStream(file);
-
-                // StringBuilder for serialization
-                StringBuilder builder = new StringBuilder(Fractal.getFractalTypeName(mFractal.getFractalType()));
-
-                // The FractalSettings to serialize
-                FractalSetting[] fractalSettings = mFractal.getFractalSettings();
-
-                // Serialize FractalSettings
-                for (FractalSetting fractalSetting : fractalSettings) {
-                    builder.append('\n').append(serializeFractalSetting(fractalSetting));
+                mFractal.save(file);
+                // An older cache file would restore a view that wasn't saved
+                File cacheFile = FractalCacheFile.getFile(file);
+                if (mSaveCacheFile) {
+                    FractalCacheFile.write(cacheFile, mFractal, mViewerPanel.getWidth(), mViewerPanel.getHeight());
+                } else {
+                    Files.deleteIfExists(cacheFile.toPath());
                 }
-
-                // Write string to FileOutputStream
-                fos.write(builder.toString().getBytes("UTF-8"));
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
-
-    // Below functions should be moved within the definition of FractalSetting.
-
-    // Function that gets the serialized value from a FractalSetting object.
-    private static String serializeFractalSetting(FractalSetting fractalSetting) {
-        if (fractalSetting instanceof FractalSettingColor) {
-            Color color = ((FractalSettingColor) fractalSetting).getValue();
-            return color.getRed() + "," + color.getGreen() + "," + color.getBlue();
-        } else if (fractalSetting instanceof FractalSettingNumber) {
-            return String.valueOf(((FractalSettingNumber) fractalSetting).getValue());
-        }
-        return null;
-    }
-
-    // Function that sets a serialized value back into a FractalSetting object.
-    private static void deserializeFractalSetting(FractalSetting fractalSetting, String serialized) {
-        if (fractalSetting instanceof FractalSettingColor) {
-            String[] split = serialized.split(",");
-            Color color = new Color(Integer.parseInt(split[0]), Integer.parseInt(split[1]), Integer.parseInt(split[2]));
-            ((FractalSettingColor) fractalSetting).setInitialValue(color);
-        } else if (fractalSetting instanceof FractalSettingNumber) {
-            ((FractalSettingNumber) fractalSetting).setInitialValue(Integer.valueOf(serialized));
-        }
-    }
 }
@@ -1,14 +1,37 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 
 /**
  * The panel that shows Fractals.
  */
-public class FractalGeneratorGuiViewerPanel extends JPanel implements Fractal.FractalListener, MouseWheelListener, MouseListener, MouseMotionListener {
+public class FractalGeneratorGuiViewerPanel extends JPanel implements Fractal.FractalListener, FractalRenderer.FrameListener, MouseWheelListener, MouseListener, MouseMotionListener {
     private Fractal mFractal;
     private MouseBehaviour mMouseBehaviour = MouseBehaviour.Hand;
 
+    // Renders frames in the background, the last completed frame is shown until a new one is ready
+    private final FractalRenderer mRenderer = new FractalRenderer(this);
+    private BufferedImage mFrame;
+    private FractalView mFrameView;
+
+    // Bursts of invalidations, like holding a spinner arrow or dragging, only render the latest state
+    private final FractalRedrawScheduler mRedrawScheduler = new FractalRedrawScheduler(new Runnable() {
+        @Override
+        public void run() {
+            if (mFractal != null) {
+                mRenderer.requestRender(mFractal, getWidth(), getHeight(), mInvalidatedStage);
+            }
+            mInvalidatedStage = null;
+        }
+    });
+
+    // The earliest stage that was invalidated since the last render was requested
+    private Fractal.RenderStage mInvalidatedStage;
+
+    // Whether the render statistics of the current FractalType are drawn on top of the frame
+    private boolean mShowMetrics;
+
     FractalGeneratorGuiViewerPanel() {
         super();
 
@@ -22,25 +45,81 @@ public class FractalGeneratorGuiViewerPanel extends JPanel implements Fractal.Fr
         addMouseWheelListener(this);
         addMouseListener(this);
         addMouseMotionListener(this);
+
+        // A different size needs a new frame
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (mFractal != null) {
+                    onFractalInvalidated(Fractal.RenderStage.Geometry);
+                }
+            }
+        });
     }
 
     @Override
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
 
-        // Draw the fractal on our canvas if we have a fractal
-        if (mFractal != null) {
-            mFractal.draw(g, getWidth(), getHeight());
+        // Draw the last rendered frame on our canvas if we have one
+        if (mFrame == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        FractalMetrics metrics = FractalMetrics.get(mFractal.getFractalType());
+        FractalView view = mFractal.getView();
+        if (view.equals(mFrameView)) {
+            g.drawImage(mFrame, 0, 0, null);
+        } else {
+            // The view changed since the frame was rendered, so move it to where it would be now until
+            // the new frame is ready
+            ((Graphics2D) g).drawImage(mFrame,
+                    mFrameView.getReprojection(view, mFractal.getZoomAnchor(getWidth(), getHeight())), null);
+        }
+        metrics.recordPaint(System.nanoTime() - start);
+
+        if (mShowMetrics) {
+            drawMetrics(g, metrics.getSummary());
         }
     }
 
+    // Draws lines of text in the top left corner, on a dark background so they can be read on any fractal
+    private void drawMetrics(Graphics g, String[] lines) {
+        FontMetrics fontMetrics = g.getFontMetrics();
+        int lineHeight = fontMetrics.getHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fontMetrics.stringWidth(line));
+        }
+
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(4, 4, width + 8, lineHeight * lines.length + 8);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i ++) {
+            g.drawString(lines[i], 8, 8 + lineHeight * i + fontMetrics.getAscent());
+        }
+    }
+
+    void setShowMetrics(boolean showMetrics) {
+        mShowMetrics = showMetrics;
+        repaint();
+    }
+
+    @Override
+    public void onFrameRendered(BufferedImage frame, FractalView view) {
+        mFrame = frame;
+        mFrameView = view;
+        repaint();
+    }
+
     void setFractal(Fractal fractal) {
         if (mFractal != null) {
             mFractal.setFractalListener(null);
         }
         mFractal = fractal;
         mFractal.setFractalListener(this);
-        onFractalInvalidated();
+        onFractalInvalidated(Fractal.RenderStage.Geometry);
     }
 
     void setMouseBehaviour(MouseBehaviour mouseBehaviour) {
@@ -52,14 +131,18 @@ public class FractalGeneratorGuiViewerPanel extends JPanel implements Fractal.Fr
     }
 
     @Override
-    public void onFractalInvalidated() {
+    public void onFractalInvalidated(Fractal.RenderStage stage) {
+        mInvalidatedStage = Fractal.RenderStage.earliest(mInvalidatedStage, stage);
+        mRedrawScheduler.schedule();
+
+        // Show the previous frame at the new position right away, repaints are merged by Swing itself
         repaint();
     }
 
     @Override
     public void mouseWheelMoved(MouseWheelEvent e) {
         if (mFractal != null) {
-            mFractal.zoom(e.getPreciseWheelRotation());
+            mFractal.zoomAt(e.getPreciseWheelRotation(), e.getX(), e.getY(), getWidth(), getHeight());
         }
     }
 
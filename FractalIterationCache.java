@@ -0,0 +1,91 @@
+import java.awt.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+/**
+ * Least recently used cache of what the Iteration stage computed for regions
+ * of the viewport, bounded by the memory it takes up: iteration counts of
+ * escape-time frames, their histograms, and coverage masks. None of it
+ * depends on the colors, so when only those change, a region is colored again
+ * from here instead of being computed again.
+ */
+public class FractalIterationCache<V> {
+    private final long mMaxBytes;
+    private final ToLongFunction<V> mSize;
+    private long mBytes;
+
+    // Access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<FieldKey, V> mFields = new LinkedHashMap<>(64, 0.75f, true);
+
+    // The size tells how many bytes a value takes up
+    FractalIterationCache(long maxBytes, ToLongFunction<V> size) {
+        mMaxBytes = maxBytes;
+        mSize = size;
+    }
+
+    // Gets what was computed for a region, or null if it is not in the cache
+    synchronized V get(FieldKey key) {
+        return mFields.get(key);
+    }
+
+    synchronized void put(FieldKey key, V field) {
+        V previous = mFields.put(key, field);
+        if (previous != null) {
+            mBytes -= mSize.applyAsLong(previous);
+        }
+        mBytes += mSize.applyAsLong(field);
+
+        // Evict the least recently used fields until we're within bounds again
+        Iterator<Map.Entry<FieldKey, V>> iterator = mFields.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            mBytes -= mSize.applyAsLong(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    synchronized void clear() {
+        mFields.clear();
+        mBytes = 0;
+    }
+
+    // Identifies what was computed for a region of the viewport. The region is relative to the pan of the view, see
+    // Fractal.getFieldKey. The stage key is the one of the stage that computed it, so it covers everything but the
+    // coloring.
+    static class FieldKey {
+        private final Rectangle mRegion;
+        private final int mWidth;
+        private final int mHeight;
+        private final FractalView mView;
+        private final String mStageKey;
+
+        FieldKey(Rectangle region, int width, int height, FractalView view, String stageKey) {
+            mRegion = new Rectangle(region);
+            mWidth = width;
+            mHeight = height;
+            mView = view;
+            mStageKey = stageKey;
+        }
+
+        Rectangle getRegion() {
+            return new Rectangle(mRegion);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FieldKey)) {
+                return false;
+            }
+            FieldKey other = (FieldKey) o;
+            return mRegion.equals(other.mRegion) && mWidth == other.mWidth && mHeight == other.mHeight
+                    && mView.equals(other.mView) && mStageKey.equals(other.mStageKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mRegion, mWidth, mHeight, mView, mStageKey);
+        }
+    }
+}
@@ -1,20 +1,211 @@
+import javax.swing.*;
 import java.awt.*;
+import java.math.BigDecimal;
 
 /**
- * Created by me on 10/31/2016.
+ * Implementation of the Julia set.
  */
-public class FractalJulia extends Fractal {
+public class FractalJulia extends FractalEscapeTime {
     FractalJulia() {
         super(FractalType.Julia);
     }
 
     @Override
-    void draw(Graphics g, int width, int height) {
+    double getCenterX() {
+        return 0;
+    }
+
+    @Override
+    double getCenterY() {
+        return 0;
+    }
+
+    // z and -z end up at the same point after one iteration, so the set is symmetric around the origin
+    @Override
+    boolean isPointSymmetric() {
+        return true;
+    }
+
+    @Override
+    Kernel createKernel(Precision precision, double centerX, double centerY, double scale) {
+        switch (precision) {
+            case DoubleDouble:
+                // The center is only the pan, which is exact as a BigDecimal
+                return new DoubleDoubleJuliaKernel(
+                        FractalDoubleDouble.valueOf(new BigDecimal(scale).multiply(BigDecimal.valueOf(-getPanX()))),
+                        FractalDoubleDouble.valueOf(new BigDecimal(scale).multiply(BigDecimal.valueOf(-getPanY()))),
+                        getConstantReal(), getConstantImaginary());
+            default:
+                return new JuliaKernel(centerX, centerY, getConstantReal(), getConstantImaginary());
+        }
+    }
+
+    @Override
+    Kernel createVectorKernel(Precision precision, Kernel scalarKernel, double centerX, double centerY,
+                              double scale) {
+        switch (precision) {
+            case Double:
+                return new FractalVectorKernel.Julia(scalarKernel, centerX, centerY, getConstantReal(),
+                        getConstantImaginary());
+            default:
+                return null;
+        }
+    }
+
+    // Iterates z = z^2 + c with z starting at the point itself
+    private static class JuliaKernel implements Kernel {
+        private final double mCenterX;
+        private final double mCenterY;
+        private final double mConstantReal;
+        private final double mConstantImaginary;
 
+        JuliaKernel(double centerX, double centerY, double constantReal, double constantImaginary) {
+            mCenterX = centerX;
+            mCenterY = centerY;
+            mConstantReal = constantReal;
+            mConstantImaginary = constantImaginary;
+        }
+
+        @Override
+        public int iterate(double x, double y, int maxIterations) {
+            double zx = mCenterX + x;
+            double zy = mCenterY + y;
+            double zx2 = zx * zx;
+            double zy2 = zy * zy;
+            int iteration = 0;
+
+            while (iteration < maxIterations && zx2 + zy2 <= 4) {
+                zy = 2 * zx * zy + mConstantImaginary;
+                zx = zx2 - zy2 + mConstantReal;
+                zx2 = zx * zx;
+                zy2 = zy * zy;
+                iteration ++;
+            }
+
+            return iteration;
+        }
+    }
+
+    // JuliaKernel in double-doubles
+    private static class DoubleDoubleJuliaKernel implements Kernel {
+        private final FractalDoubleDouble mCenterX;
+        private final FractalDoubleDouble mCenterY;
+        private final double mConstantReal;
+        private final double mConstantImaginary;
+
+        DoubleDoubleJuliaKernel(FractalDoubleDouble centerX, FractalDoubleDouble centerY, double constantReal,
+                                double constantImaginary) {
+            mCenterX = centerX;
+            mCenterY = centerY;
+            mConstantReal = constantReal;
+            mConstantImaginary = constantImaginary;
+        }
+
+        @Override
+        public int iterate(double x, double y, int maxIterations) {
+            FractalDoubleDouble zx = new FractalDoubleDouble(mCenterX.hi, mCenterX.lo);
+            zx.add(x, 0);
+            FractalDoubleDouble zy = new FractalDoubleDouble(mCenterY.hi, mCenterY.lo);
+            zy.add(y, 0);
+            FractalDoubleDouble zx2 = new FractalDoubleDouble(zx.hi, zx.lo);
+            zx2.square();
+            FractalDoubleDouble zy2 = new FractalDoubleDouble(zy.hi, zy.lo);
+            zy2.square();
+            int iteration = 0;
+
+            while (iteration < maxIterations && zx2.hi + zy2.hi <= 4) {
+                // zy = 2 zx zy + c
+                zy.multiply(zx);
+                zy.twice();
+                zy.add(mConstantImaginary, 0);
+
+                // zx = zx^2 - zy^2 + c
+                zx.set(zx2);
+                zx.subtract(zy2);
+                zx.add(mConstantReal, 0);
+
+                zx2.set(zx);
+                zx2.square();
+                zy2.set(zy);
+                zy2.square();
+                iteration ++;
+            }
+
+            return iteration;
+        }
     }
 
+    // The settings for this fractal
     @Override
     FractalSetting[] buildFractalSettings() {
-        return new FractalSetting[0];
+        return new FractalSetting[] {
+                new FractalSettingColor(this, Color.BLACK, "Inside color"),
+                new FractalSettingColor(this, new Color(40, 0, 60), "Outer color"),
+                new FractalSettingColor(this, new Color(255, 200, 120), "Edge color"),
+                new FractalSettingNumber(this, new SpinnerNumberModel(256, 1, 100000, 1), "Max iterations",
+                        RenderStage.Iteration),
+                new FractalSettingDecimal(this, new SpinnerNumberModel(-0.8, -2, 2, 0.001), "C (real)"),
+                new FractalSettingDecimal(this, new SpinnerNumberModel(0.156, -2, 2, 0.001), "C (imaginary)"),
+                // Julia sets for a C outside of the Mandelbrot set are dust, which a uniform border says nothing about
+                new FractalSettingBoolean(this, false, "Rectangle subdivision", RenderStage.Iteration),
+                new FractalSettingBoolean(this, false, "Verify subdivision", RenderStage.Iteration),
+                new FractalSettingBoolean(this, true, "Vector kernel", RenderStage.Iteration),
+                new FractalSettingBoolean(this, true, "Automatic precision", RenderStage.Iteration),
+                new FractalSettingBoolean(this, false, "Histogram coloring", RenderStage.Coloring)
+        };
+    }
+
+    // Helper functions for getting values from FractalSettings
+    @Override
+    Color getInsideColor() {
+        return FractalSetting.getColorAt(getFractalSettings(), 0);
+    }
+
+    @Override
+    Color getOuterColor() {
+        return FractalSetting.getColorAt(getFractalSettings(), 1);
+    }
+
+    @Override
+    Color getEdgeColor() {
+        return FractalSetting.getColorAt(getFractalSettings(), 2);
+    }
+
+    @Override
+    int getMaxIterations() {
+        return FractalSetting.getNumberAt(getFractalSettings(), 3);
+    }
+
+    private double getConstantReal() {
+        return FractalSetting.getDecimalAt(getFractalSettings(), 4);
+    }
+
+    private double getConstantImaginary() {
+        return FractalSetting.getDecimalAt(getFractalSettings(), 5);
+    }
+
+    @Override
+    boolean isSubdivision() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 6);
+    }
+
+    @Override
+    boolean isVerifySubdivision() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 7);
+    }
+
+    @Override
+    boolean isVectorKernel() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 8);
+    }
+
+    @Override
+    boolean isAutomaticPrecision() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 9);
+    }
+
+    @Override
+    boolean isHistogramColoring() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 10);
     }
 }
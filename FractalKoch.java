@@ -1,23 +1,59 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
 
 /**
  * Implementation of the Koch snowflake fractal.
  */
 public class FractalKoch extends Fractal {
+    // Deepest level that is kept in the shared vertex buffer, deeper levels are drawn recursively
+    private static final int MAX_CACHED_LEVEL = 10;
+
+    // The snowflake looks the same for every instance, so its geometry is shared
+    private static final FractalKochGeometry GEOMETRY = new FractalKochGeometry();
+
+    // Lines with coordinates beyond this are clipped before they are converted to ints
+    private static final double MAX_COORDINATE = 1 << 20;
+
     FractalKoch() {
         super(FractalType.Koch);
     }
 
     @Override
-    void draw(Graphics g, int width, int height) {
-        // Draw background
-        g.setColor(getBackgroundColor());
-        g.fillRect(0, 0, width, height);
+    boolean draw(Graphics g, int width, int height, FractalRenderBudget budget) {
+        // Only the part that needs drawing is of interest
+        Rectangle viewport = getDrawBounds(g, width, height);
+        if (viewport.isEmpty()) {
+            return true;
+        }
 
-        // Set color to line color
-        g.setColor(getLineColor());
+        // When only the colors changed since this part was drawn, color its mask again
+        FractalIterationCache.FieldKey key = getFieldKey(viewport, width, height);
+        FractalCoverageMask mask = FractalCoverageMask.get(key);
+        if (mask != null) {
+            mask.draw(g, viewport.getLocation(), getBackgroundColor(), getLineColor());
+            return true;
+        }
 
+        // Draw the lines on a mask and color that, complete masks are kept for when the colors change
+        mask = new FractalCoverageMask(viewport.width, viewport.height);
+        Graphics2D maskGraphics = mask.createGraphics(viewport.getLocation());
+        boolean complete;
+        try {
+            complete = drawKoch(maskGraphics, viewport, width, height, budget);
+        } finally {
+            maskGraphics.dispose();
+        }
+        if (complete) {
+            FractalCoverageMask.put(key, mask);
+        }
+        mask.draw(g, viewport.getLocation(), getBackgroundColor(), getLineColor());
+        return complete;
+    }
+
+    // Draws the lines that fall within the viewport
+    private boolean drawKoch(Graphics g, Rectangle viewport, int width, int height, FractalRenderBudget budget) {
         // Take the smallest of width and height and use it as dimension for the triangle
         int smallestDimension = Math.min(width, height);
 
@@ -28,85 +64,194 @@ public class FractalKoch extends Fractal {
         double left = (width - triangleWH) / 2d + getPanX();
         double top = (height - triangleWH) / 64d + getPanY();
 
+        // Figure out how deep to go, there is no use in drawing triangles smaller than a pixel
+        int iterations = getIterations();
+        int visibleLevel = getVisibleLevel(triangleWH);
+        int level = iterations == 0 ? visibleLevel : Math.min(iterations, visibleLevel);
+
+        if (level <= MAX_CACHED_LEVEL) {
+            // Transform the cached unit space geometry onto the screen
+            return drawKochCached(g, viewport, level, left, top, triangleWH, budget);
+        }
+
         // Start drawing!
-        drawKochStart(g, left, top + triangleWH, left + triangleWH, top + triangleWH);
+        return drawKochBreadthFirst(g, viewport, iterations, left, top + triangleWH, left + triangleWH,
+                top + triangleWH, budget);
     }
 
-    void drawKochStart(Graphics g, double x1, double y1, double x2, double y2) {
-        // Calculate triangle line segments that belong to this base
-        double[] lineSegments = getLineSegmentsOnBase(x1, y1, x2, y2);
+    // The triangle grows from a point at a 64th of the height, see draw
+    @Override
+    Point2D getZoomAnchor(int width, int height) {
+        return new Point2D.Double(width / 2d, height / 64d);
+    }
 
-        // Draw base
-        drawLine(g, x1, y1, x2, y2);
+    // The level at which the triangles become smaller than a pixel for a given triangle size
+    static int getVisibleLevel(double triangleWH) {
+        int level = 2;
+        double baseLength = triangleWH / 3;
+        while (baseLength >= 1) {
+            baseLength /= 3;
+            level ++;
+        }
+        return level;
+    }
+
+    // Draws all segments of a level from the vertex buffer, only applying pan and zoom. The buffer is ordered by
+    // level, so when the budget runs out the coarser levels have been drawn.
+    private boolean drawKochCached(Graphics g, Rectangle viewport, int level, double left, double top, double scale,
+                                   FractalRenderBudget budget) {
+        int segmentCount = GEOMETRY.getSegmentCount(level);
+        double[] segments = GEOMETRY.getSegments();
 
-        // Draw other line segments
-        drawLine(g, lineSegments[0], lineSegments[1], lineSegments[2], lineSegments[3]);
-        drawLine(g, lineSegments[4], lineSegments[5], lineSegments[6], lineSegments[7]);
+        for (int i = 0; i < segmentCount; i ++) {
+            // Culled segments don't cost anything, so also look at the budget every now and then
+            if ((i & 0xfff) == 0 && budget.isExhausted()) {
+                return false;
+            }
 
-        int finalIteration = getIterations();
+            int s = i * 4;
+            double x1 = left + segments[s] * scale;
+            double y1 = top + segments[s + 1] * scale;
+            double x2 = left + segments[s + 2] * scale;
+            double y2 = top + segments[s + 3] * scale;
 
-        // Final iteration not infinite nor 1?
-        if (finalIteration != 1) {
-            // Start recursive koch drawing on all surfaces
-            drawKochRecursive(g, 1, finalIteration, x2, y2, x1, y1);
-            drawKochRecursive(g, 1, finalIteration, lineSegments[0], lineSegments[1], lineSegments[2], lineSegments[3]);
-            drawKochRecursive(g, 1, finalIteration, lineSegments[4], lineSegments[5], lineSegments[6], lineSegments[7]);
+            // Skip segments that are entirely outside the viewport once they are rounded to pixels
+            if (Math.max(x1, x2) < viewport.x - 0.5 || Math.min(x1, x2) >= viewport.x + viewport.width + 0.5
+                    || Math.max(y1, y2) < viewport.y - 0.5 || Math.min(y1, y2) >= viewport.y + viewport.height + 0.5) {
+                continue;
+            }
+
+            // Zoomed in far enough, the ends don't fit in an int, which drawLine takes care of
+            if (!budget.spend(1)) {
+                return false;
+            }
+            drawLine(g, viewport, x1, y1, x2, y2);
         }
+
+        return true;
     }
 
-    void drawKochRecursive(Graphics g, int iteration, int finalIteration, double x1, double y1, double x2, double y2) {
-        // Increment iteration counter
-        iteration ++;
+    // Draws the triangle and then puts triangles on the segments one level at a time, so the coarse shape is
+    // there when the budget runs out halfway
+    boolean drawKochBreadthFirst(Graphics g, Rectangle viewport, int finalIteration,
+                                 double x1, double y1, double x2, double y2, FractalRenderBudget budget) {
+        // Calculate triangle line segments that belong to this base
+        double[] lineSegments = getLineSegmentsOnBase(x1, y1, x2, y2);
+
+        // Draw base and other line segments
+        if (!budget.spend(3)) {
+            return false;
+        }
+        drawLine(g, viewport, x1, y1, x2, y2);
+        drawLine(g, viewport, lineSegments[0], lineSegments[1], lineSegments[2], lineSegments[3]);
+        drawLine(g, viewport, lineSegments[4], lineSegments[5], lineSegments[6], lineSegments[7]);
 
-        // Store the deltas / 3
-        double xd = (x2 - x1) / 3;
-        double yd = (y2 - y1) / 3;
+        // Segments that get a triangle on the next level, stored as x1, y1, x2, y2.
+        // The base is subdivided in the opposite direction so its triangle points outwards.
+        double[] frontier = {
+                x2, y2, x1, y1,
+                lineSegments[0], lineSegments[1], lineSegments[2], lineSegments[3],
+                lineSegments[4], lineSegments[5], lineSegments[6], lineSegments[7]
+        };
+        int frontierCount = finalIteration == 1 ? 0 : 3;
 
-        // Current iteration koch base
-        double nx1 = x1 + xd;
-        double ny1 = y1 + yd;
-        double nx2 = x2 - xd;
-        double ny2 = y2 - yd;
+        for (int iteration = 2; frontierCount > 0; iteration ++) {
+            double[] next = new double[frontierCount * 16];
+            int nextCount = 0;
 
-        // Get associated line segments
-        double[] lineSegments = getLineSegmentsOnBase(nx1, ny1, nx2, ny2);
+            for (int i = 0; i < frontierCount; i ++) {
+                int f = i * 4;
+                double sx1 = frontier[f];
+                double sy1 = frontier[f + 1];
+                double sx2 = frontier[f + 2];
+                double sy2 = frontier[f + 3];
 
-        // Draw the line segments
-        drawLine(g, lineSegments[0], lineSegments[1], lineSegments[2], lineSegments[3]);
-        drawLine(g, lineSegments[4], lineSegments[5], lineSegments[6], lineSegments[7]);
+                // Everything drawn from here on lies within the circle through both ends of the base,
+                // so skip this segment when that circle is off screen
+                double radius = Math.max(Math.abs(sx2 - sx1), Math.abs(sy2 - sy1)) + 1;
+                double centerX = (sx1 + sx2) / 2;
+                double centerY = (sy1 + sy2) / 2;
+                if (centerX + radius < viewport.x || centerX - radius > viewport.x + viewport.width
+                        || centerY + radius < viewport.y || centerY - radius > viewport.y + viewport.height) {
+                    continue;
+                }
 
-        // Are there iterations left?
-        if (iteration != finalIteration) {
-            // Make sure the result is still visible in case of infinite iterations
-            if (finalIteration == 0 && Math.max(Math.abs(nx2 - nx1), Math.abs(ny2 - ny1)) < 1) {
-                return;
-            }
+                // Store the deltas / 3
+                double xd = (sx2 - sx1) / 3;
+                double yd = (sy2 - sy1) / 3;
+
+                // Current iteration koch base
+                double nx1 = sx1 + xd;
+                double ny1 = sy1 + yd;
+                double nx2 = sx2 - xd;
+                double ny2 = sy2 - yd;
 
-            // Draw on the 4 surfaces that are now there
-            drawKochRecursive(g, iteration, finalIteration,
-                    lineSegments[0], lineSegments[1], lineSegments[2], lineSegments[3]);
+                // Top of the triangle on the current iteration koch base
+                double x3 = nx1 + (nx2 - nx1) * FractalKochGeometry.COS_60 + (ny2 - ny1) * FractalKochGeometry.SIN_60;
+                double y3 = ny1 - (nx2 - nx1) * FractalKochGeometry.SIN_60 + (ny2 - ny1) * FractalKochGeometry.COS_60;
 
-            drawKochRecursive(g, iteration, finalIteration,
-                    lineSegments[4], lineSegments[5], lineSegments[6], lineSegments[7]);
+                // Draw the line segments
+                if (!budget.spend(2)) {
+                    return false;
+                }
+                drawLine(g, viewport, nx1, ny1, x3, y3);
+                drawLine(g, viewport, x3, y3, nx2, ny2);
 
-            drawKochRecursive(g, iteration, finalIteration, x1, y1, x1 + xd, y1 + yd);
+                // Are there iterations left? Triangles smaller than a pixel don't add anything.
+                if (iteration == finalIteration || Math.max(Math.abs(nx2 - nx1), Math.abs(ny2 - ny1)) < 1) {
+                    continue;
+                }
 
-            drawKochRecursive(g, iteration, finalIteration, x1 + xd * 2, y1 + yd * 2, x2, y2);
+                // The 4 surfaces that are now there get a triangle on the next level
+                int n = nextCount * 4;
+                next[n] = nx1;
+                next[n + 1] = ny1;
+                next[n + 2] = x3;
+                next[n + 3] = y3;
+                next[n + 4] = x3;
+                next[n + 5] = y3;
+                next[n + 6] = nx2;
+                next[n + 7] = ny2;
+                next[n + 8] = sx1;
+                next[n + 9] = sy1;
+                next[n + 10] = nx1;
+                next[n + 11] = ny1;
+                next[n + 12] = nx2;
+                next[n + 13] = ny2;
+                next[n + 14] = sx2;
+                next[n + 15] = sy2;
+                nextCount += 4;
+            }
+
+            frontier = next;
+            frontierCount = nextCount;
         }
 
+        return true;
     }
 
     // Gets the two line segments needed to create a triangle from a base line segment.
     double[] getLineSegmentsOnBase(double x1, double y1, double x2, double y2) {
-        double angle = Math.PI / 3; // 60 deg
-        double x3 = x1 + (x2 - x1) * Math.cos(angle) + (y2 - y1) * Math.sin(angle);
-        double y3 = y1 - (x2 - x1) * Math.sin(angle) + (y2 - y1) * Math.cos(angle);
+        double x3 = x1 + (x2 - x1) * FractalKochGeometry.COS_60 + (y2 - y1) * FractalKochGeometry.SIN_60;
+        double y3 = y1 - (x2 - x1) * FractalKochGeometry.SIN_60 + (y2 - y1) * FractalKochGeometry.COS_60;
 
         return new double[] { x1, y1, x3, y3, x3, y3, x2, y2 };
     }
 
     // Helper function for drawing lines, to achieve max precision up until the drawing phase.
-    static void drawLine(Graphics g, double x1, double y1, double x2, double y2) {
+    static void drawLine(Graphics g, Rectangle viewport, double x1, double y1, double x2, double y2) {
+        // Deep zooms produce coordinates that don't fit in an int, so cut those lines to the viewport first
+        if (Math.max(Math.max(Math.abs(x1), Math.abs(y1)), Math.max(Math.abs(x2), Math.abs(y2))) > MAX_COORDINATE) {
+            double[] clipped = clipLine(viewport, x1, y1, x2, y2);
+            if (clipped == null) {
+                return;
+            }
+            x1 = clipped[0];
+            y1 = clipped[1];
+            x2 = clipped[2];
+            y2 = clipped[3];
+        }
+
         // Convert all doubles to ints
         int ix1 = (int) Math.round(x1);
         int iy1 = (int) Math.round(y1);
@@ -115,6 +260,50 @@ public class FractalKoch extends Fractal {
         g.drawLine(ix1, iy1, ix2, iy2);
     }
 
+    // Clips a line to the viewport (with a margin of a pixel), returns null when nothing is left of it
+    private static double[] clipLine(Rectangle viewport, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double from = 0;
+        double to = 1;
+
+        // Liang-Barsky: narrow down the part of the line within each of the four edges
+        double[] p = { -dx, dx, -dy, dy };
+        double[] q = {
+                x1 - (viewport.x - 1), viewport.x + viewport.width + 1 - x1,
+                y1 - (viewport.y - 1), viewport.y + viewport.height + 1 - y1
+        };
+        for (int i = 0; i < 4; i ++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return null;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    from = Math.max(from, t);
+                } else {
+                    to = Math.min(to, t);
+                }
+            }
+        }
+
+        if (from > to) {
+            return null;
+        }
+        return new double[] { x1 + from * dx, y1 + from * dy, x1 + to * dx, y1 + to * dy };
+    }
+
+    @Override
+    ByteBuffer getCachedField(FractalIterationCache.FieldKey key) {
+        return FractalCoverageMask.getField(key);
+    }
+
+    @Override
+    int getCachedFieldBytesPerPixel() {
+        return FractalCoverageMask.BYTES_PER_PIXEL;
+    }
+
     // The settings for this fractal
     @Override
     FractalSetting[] buildFractalSettings() {
@@ -0,0 +1,136 @@
+/**
+ * The line segments of the Koch snowflake in unit space, where the base of the
+ * first triangle runs from (0, 1) to (1, 1). Levels are built one at a time:
+ * the segments of a level are a prefix of those of the next level, and the
+ * segments that are subdivided next are kept, so deepening by one level only
+ * processes the previous level.
+ */
+class FractalKochGeometry {
+    static final double COS_60 = 0.5;
+    static final double SIN_60 = Math.sqrt(3) / 2;
+
+    // Segments to draw, stored as x1, y1, x2, y2
+    private double[] mSegments;
+    private int mSegmentCount;
+
+    // The number of segments that make up each level, indexed by level
+    private int[] mLevelEnds;
+
+    // Segments of the deepest level that get a triangle on the next level
+    private double[] mFrontier;
+    private int mFrontierCount;
+
+    FractalKochGeometry() {
+        // Level 1 is the triangle itself
+        double[] apex = getApex(0, 1, 1, 1);
+        mSegments = new double[] {
+                0, 1, 1, 1,
+                0, 1, apex[0], apex[1],
+                apex[0], apex[1], 1, 1
+        };
+        mSegmentCount = 3;
+        mLevelEnds = new int[] { 0, 3 };
+
+        // The base is subdivided in the opposite direction so its triangle points outwards
+        mFrontier = new double[] {
+                1, 1, 0, 1,
+                0, 1, apex[0], apex[1],
+                apex[0], apex[1], 1, 1
+        };
+        mFrontierCount = 3;
+    }
+
+    // Number of segments to draw for the given level, building it if needed
+    synchronized int getSegmentCount(int level) {
+        while (mLevelEnds.length <= level) {
+            deepen();
+        }
+        return mLevelEnds[level];
+    }
+
+    // The segment buffer. Only the prefix returned by getSegmentCount is guaranteed to be valid.
+    synchronized double[] getSegments() {
+        return mSegments;
+    }
+
+    // Builds the next level by putting a triangle on the middle third of every frontier segment
+    private void deepen() {
+        ensureSegmentCapacity(mSegmentCount + mFrontierCount * 2);
+        double[] frontier = new double[mFrontierCount * 16];
+
+        for (int i = 0; i < mFrontierCount; i ++) {
+            double x1 = mFrontier[i * 4];
+            double y1 = mFrontier[i * 4 + 1];
+            double x2 = mFrontier[i * 4 + 2];
+            double y2 = mFrontier[i * 4 + 3];
+
+            // Middle third of the segment
+            double xd = (x2 - x1) / 3;
+            double yd = (y2 - y1) / 3;
+            double nx1 = x1 + xd;
+            double ny1 = y1 + yd;
+            double nx2 = x2 - xd;
+            double ny2 = y2 - yd;
+
+            // Top of the triangle on the middle third
+            double x3 = nx1 + (nx2 - nx1) * COS_60 + (ny2 - ny1) * SIN_60;
+            double y3 = ny1 - (nx2 - nx1) * SIN_60 + (ny2 - ny1) * COS_60;
+
+            // The two new segments are drawn
+            int s = mSegmentCount * 4;
+            mSegments[s] = nx1;
+            mSegments[s + 1] = ny1;
+            mSegments[s + 2] = x3;
+            mSegments[s + 3] = y3;
+            mSegments[s + 4] = x3;
+            mSegments[s + 5] = y3;
+            mSegments[s + 6] = nx2;
+            mSegments[s + 7] = ny2;
+            mSegmentCount += 2;
+
+            // And together with the outer thirds they form the next frontier
+            int f = i * 16;
+            frontier[f] = nx1;
+            frontier[f + 1] = ny1;
+            frontier[f + 2] = x3;
+            frontier[f + 3] = y3;
+            frontier[f + 4] = x3;
+            frontier[f + 5] = y3;
+            frontier[f + 6] = nx2;
+            frontier[f + 7] = ny2;
+            frontier[f + 8] = x1;
+            frontier[f + 9] = y1;
+            frontier[f + 10] = nx1;
+            frontier[f + 11] = ny1;
+            frontier[f + 12] = nx2;
+            frontier[f + 13] = ny2;
+            frontier[f + 14] = x2;
+            frontier[f + 15] = y2;
+        }
+
+        mFrontier = frontier;
+        mFrontierCount *= 4;
+
+        // Remember where the new level ends
+        int[] levelEnds = new int[mLevelEnds.length + 1];
+        System.arraycopy(mLevelEnds, 0, levelEnds, 0, mLevelEnds.length);
+        levelEnds[mLevelEnds.length] = mSegmentCount;
+        mLevelEnds = levelEnds;
+    }
+
+    private void ensureSegmentCapacity(int segmentCount) {
+        if (mSegments.length < segmentCount * 4) {
+            double[] segments = new double[segmentCount * 4];
+            System.arraycopy(mSegments, 0, segments, 0, mSegmentCount * 4);
+            mSegments = segments;
+        }
+    }
+
+    // Gets the top of the triangle that is put on a base line segment
+    static double[] getApex(double x1, double y1, double x2, double y2) {
+        return new double[] {
+                x1 + (x2 - x1) * COS_60 + (y2 - y1) * SIN_60,
+                y1 - (x2 - x1) * SIN_60 + (y2 - y1) * COS_60
+        };
+    }
+}
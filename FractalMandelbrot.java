@@ -1,20 +1,548 @@
+import javax.swing.*;
 import java.awt.*;
+import java.math.BigDecimal;
+import java.math.MathContext;
 
 /**
- * Created by me on 10/31/2016.
+ * Implementation of the Mandelbrot set.
+ *
+ * In deep zoom mode, zooming is multiplicative and the middle of the view is
+ * kept as a BigDecimal. Once doubles can't tell the pixels apart anymore, a
+ * single reference orbit is then iterated at high precision, and every pixel
+ * only iterates its difference from that orbit in doubles (perturbation).
+ * That is cheaper than double-doubles and keeps working far beyond them,
+ * except around the inside of the set, which only double-doubles can stop
+ * early with the periodicity check. They are used there while they suffice.
+ *
+ * Points inside the set take the full number of iterations, so unless
+ * perturbation is used they are recognized early where possible: points in
+ * the main cardioid and the period-2 bulb are inside by definition, and an
+ * orbit that comes back to a point it visited before has been caught in a
+ * cycle.
  */
-public class FractalMandelbrot extends Fractal {
+public class FractalMandelbrot extends FractalEscapeTime {
+    // Each step of the mouse wheel zooms by this factor in deep zoom mode
+    private static final double DEEP_ZOOM_FACTOR = 1.25;
+
+    // Pan beyond this many pixels is moved into the center, so the pan doesn't overflow when zooming deep
+    private static final int MAX_PAN = 1 << 20;
+
+    // Digits of precision used on top of what the scale requires
+    private static final int EXTRA_DIGITS = 12;
+
+    // An orbit that gets this close to a point it visited before is considered periodic, compared squared. That is
+    // about a hundred ulps of the precision it is iterated in.
+    static final double PERIODICITY_EPSILON_SQUARED = 1e-28;
+    private static final double DOUBLE_DOUBLE_PERIODICITY_EPSILON_SQUARED = 1e-58;
+
+    // The last reference orbit, shared by all tiles and snapshots that look at the same point
+    private static ReferenceOrbit sReferenceOrbit;
+
+    // The point in the middle of the viewport when there is no pan
+    private BigDecimal mCenterX = new BigDecimal("-0.5");
+    private BigDecimal mCenterY = BigDecimal.ZERO;
+
+    // The last time the pan was moved into the center, null if it hasn't been since the center was reset
+    private FractalView.Fold mFold;
+
     FractalMandelbrot() {
         super(FractalType.Mandelbrot);
     }
 
     @Override
-    void draw(Graphics g, int width, int height) {
+    double getCenterX() {
+        return mCenterX.doubleValue();
+    }
+
+    @Override
+    double getCenterY() {
+        return mCenterY.doubleValue();
+    }
+
+    @Override
+    double getNextZoom(double amount) {
+        if (isDeepZoom()) {
+            return getZoom() * Math.pow(DEEP_ZOOM_FACTOR, amount);
+        }
+        return super.getNextZoom(amount);
+    }
+
+    @Override
+    void zoomAt(double amount, int x, int y, int width, int height) {
+        // Zooming at the cursor makes the pan grow with the zoom, move it into the center before it overflows
+        if (Math.abs(getPanX()) > MAX_PAN || Math.abs(getPanY()) > MAX_PAN) {
+            double scale = getScale(width, height);
+            MathContext mathContext = new MathContext(getDigits(scale));
+            mCenterX = getViewCenter(mCenterX, getPanX(), scale).round(mathContext);
+            mCenterY = getViewCenter(mCenterY, getPanY(), scale).round(mathContext);
+            mFold = new FractalView.Fold(mFold, getZoom(), getPanX(), getPanY());
+            setPanQuietly(0, 0);
+        }
+        super.zoomAt(amount, x, y, width, height);
+    }
+
+    // A pan that is too large is moved into the center right away
+    @Override
+    void setView(double zoom, long panX, long panY, int width, int height) {
+        if (Math.abs(panX) <= MAX_PAN && Math.abs(panY) <= MAX_PAN) {
+            super.setView(zoom, panX, panY, width, height);
+            return;
+        }
+
+        // The scale is the one at the new zoom
+        double scale = getScale(width, height) * getZoom() / zoom;
+        MathContext mathContext = new MathContext(getDigits(scale));
+        mCenterX = getViewCenter(mCenterX, panX, scale).round(mathContext);
+        mCenterY = getViewCenter(mCenterY, panY, scale).round(mathContext);
+        mFold = new FractalView.Fold(mFold, zoom, panX, panY);
+        setView(zoom, 0, 0);
+    }
+
+    @Override
+    void resetView() {
+        mCenterX = new BigDecimal("-0.5");
+        mCenterY = BigDecimal.ZERO;
+        mFold = null;
+        super.resetView();
+    }
+
+    @Override
+    void copyStateTo(Fractal snapshot) {
+        ((FractalMandelbrot) snapshot).mCenterX = mCenterX;
+        ((FractalMandelbrot) snapshot).mCenterY = mCenterY;
+        ((FractalMandelbrot) snapshot).mFold = mFold;
+    }
+
+    @Override
+    FractalView getView() {
+        return new FractalView(getZoom(), getPanX(), getPanY(), mFold);
+    }
+
+    // The center is part of the view, since zooming and panning move it
+    @Override
+    String serializeView() {
+        return super.serializeView() + "," + mCenterX + "," + mCenterY;
+    }
+
+    @Override
+    void deserializeView(String serialized) {
+        super.deserializeView(serialized);
+        String[] split = serialized.split(",");
+        if (split.length == 5) {
+            BigDecimal centerX = new BigDecimal(split[3]);
+            BigDecimal centerY = new BigDecimal(split[4]);
+            // When the center jumps, it doesn't follow from any fold
+            if (!centerX.equals(mCenterX) || !centerY.equals(mCenterY)) {
+                mCenterX = centerX;
+                mCenterY = centerY;
+                mFold = new FractalView.Fold(null, getZoom(), 0, 0);
+            }
+        }
+    }
+
+    @Override
+    String getStateKey() {
+        return super.getStateKey() + '\n' + mCenterX + ',' + mCenterY;
+    }
+
+    @Override
+    String getStageKey(RenderStage stage) {
+        return super.getStageKey(stage) + '\n' + mCenterX + ',' + mCenterY;
+    }
+
+    // Deep zoom mode iterates directly while doubles suffice, and uses perturbation beyond them. Perturbation has no
+    // periodicity check though, so while double-doubles suffice they are used when the orbit of the middle of the view
+    // is caught in a cycle, as the pixels around it then mostly are too and the periodicity check stops those early.
+    @Override
+    Precision getPrecision(double scale) {
+        Precision precision = super.getPrecision(scale);
+        if (isDeepZoom() && (precision == Precision.DoubleDouble || !isAutomaticPrecision())) {
+            if (precision == Precision.DoubleDouble && isPeriodicityCheck() && isPrecise(precision, scale)
+                    && getReferenceOrbit(scale).periodic) {
+                return Precision.DoubleDouble;
+            }
+            return Precision.Perturbation;
+        }
+        return precision;
+    }
 
+    @Override
+    Kernel createKernel(Precision precision, double centerX, double centerY, double scale) {
+        switch (precision) {
+            case DoubleDouble:
+                // The center as precise as it is known, a double of it has lost what tells the pixels apart
+                return new DoubleDoubleMandelbrotKernel(
+                        FractalDoubleDouble.valueOf(getViewCenter(mCenterX, getPanX(), scale)),
+                        FractalDoubleDouble.valueOf(getViewCenter(mCenterY, getPanY(), scale)),
+                        isPeriodicityCheck());
+            case Perturbation:
+                return new PerturbationKernel(getReferenceOrbit(scale));
+            default:
+                return new MandelbrotKernel(centerX, centerY, isInteriorTest(), isPeriodicityCheck());
+        }
     }
 
+    @Override
+    Kernel createVectorKernel(Precision precision, Kernel scalarKernel, double centerX, double centerY,
+                              double scale) {
+        switch (precision) {
+            case Double:
+                return new FractalVectorKernel.Mandelbrot(scalarKernel, centerX, centerY, isInteriorTest(),
+                        isPeriodicityCheck());
+            default:
+                return null;
+        }
+    }
+
+    // Whether a point is in the main cardioid or in the period-2 bulb to the left of it
+    static boolean isInMainComponents(double cx, double cy) {
+        double y2 = cy * cy;
+        double q = (cx - 0.25) * (cx - 0.25) + y2;
+        if (q * (q + cx - 0.25) <= 0.25 * y2) {
+            return true;
+        }
+        return (cx + 1) * (cx + 1) + y2 <= 0.0625;
+    }
+
+    // The point in the middle of the viewport, given the center without pan
+    private static BigDecimal getViewCenter(BigDecimal center, long pan, double scale) {
+        return center.subtract(new BigDecimal(scale).multiply(BigDecimal.valueOf(pan)));
+    }
+
+    // Number of significant digits needed to tell neighbouring pixels apart, with some to spare
+    private static int getDigits(double scale) {
+        return Math.max(17, (int) Math.ceil(-Math.log10(scale)) + EXTRA_DIGITS);
+    }
+
+    // Iterates the point in the middle of the viewport at the precision the scale needs
+    private ReferenceOrbit getReferenceOrbit(double scale) {
+        MathContext mathContext = new MathContext(getDigits(scale));
+        BigDecimal referenceX = getViewCenter(mCenterX, getPanX(), scale).round(mathContext);
+        BigDecimal referenceY = getViewCenter(mCenterY, getPanY(), scale).round(mathContext);
+        return getReferenceOrbit(referenceX, referenceY, getMaxIterations(), mathContext);
+    }
+
+    // Gets the reference orbit of a point, reusing the last one if it is the same
+    private static synchronized ReferenceOrbit getReferenceOrbit(BigDecimal x, BigDecimal y, int maxIterations,
+                                                                 MathContext mathContext) {
+        if (sReferenceOrbit == null || !sReferenceOrbit.isFor(x, y, maxIterations)) {
+            sReferenceOrbit = new ReferenceOrbit(x, y, maxIterations, mathContext);
+        }
+        return sReferenceOrbit;
+    }
+
+    // Iterates z = z^2 + c with z starting at 0 and c being the point itself
+    private static class MandelbrotKernel implements Kernel {
+        private final double mCenterX;
+        private final double mCenterY;
+        private final boolean mInteriorTest;
+        private final boolean mPeriodicityCheck;
+
+        MandelbrotKernel(double centerX, double centerY, boolean interiorTest, boolean periodicityCheck) {
+            mCenterX = centerX;
+            mCenterY = centerY;
+            mInteriorTest = interiorTest;
+            mPeriodicityCheck = periodicityCheck;
+        }
+
+        @Override
+        public int iterate(double x, double y, int maxIterations) {
+            double cx = mCenterX + x;
+            double cy = mCenterY + y;
+            if (mInteriorTest && isInMainComponents(cx, cy)) {
+                return maxIterations;
+            }
+
+            double zx = 0;
+            double zy = 0;
+            double zx2 = 0;
+            double zy2 = 0;
+            int iteration = 0;
+
+            if (!mPeriodicityCheck) {
+                while (iteration < maxIterations && zx2 + zy2 <= 4) {
+                    zy = 2 * zx * zy + cy;
+                    zx = zx2 - zy2 + cx;
+                    zx2 = zx * zx;
+                    zy2 = zy * zy;
+                    iteration ++;
+                }
+                return iteration;
+            }
+
+            // Brent's cycle detection: compare with a point of the orbit that is replaced after twice as many
+            // iterations every time, which finds cycles of any length without keeping the whole orbit
+            double checkX = 0;
+            double checkY = 0;
+            int checkAt = 1;
+            while (iteration < maxIterations && zx2 + zy2 <= 4) {
+                zy = 2 * zx * zy + cy;
+                zx = zx2 - zy2 + cx;
+                zx2 = zx * zx;
+                zy2 = zy * zy;
+                iteration ++;
+
+                double dx = zx - checkX;
+                double dy = zy - checkY;
+                if (dx * dx + dy * dy < PERIODICITY_EPSILON_SQUARED) {
+                    return maxIterations;
+                }
+                if (iteration == checkAt) {
+                    checkX = zx;
+                    checkY = zy;
+                    checkAt <<= 1;
+                }
+            }
+
+            return iteration;
+        }
+    }
+
+    // MandelbrotKernel in double-doubles. The interior test would be done in doubles, which can't tell the pixels
+    // apart at these scales, so only the periodicity check is left.
+    private static class DoubleDoubleMandelbrotKernel implements Kernel {
+        private final FractalDoubleDouble mCenterX;
+        private final FractalDoubleDouble mCenterY;
+        private final boolean mPeriodicityCheck;
+
+        DoubleDoubleMandelbrotKernel(FractalDoubleDouble centerX, FractalDoubleDouble centerY,
+                                     boolean periodicityCheck) {
+            mCenterX = centerX;
+            mCenterY = centerY;
+            mPeriodicityCheck = periodicityCheck;
+        }
+
+        @Override
+        public int iterate(double x, double y, int maxIterations) {
+            FractalDoubleDouble cx = new FractalDoubleDouble(mCenterX.hi, mCenterX.lo);
+            cx.add(x, 0);
+            FractalDoubleDouble cy = new FractalDoubleDouble(mCenterY.hi, mCenterY.lo);
+            cy.add(y, 0);
+            FractalDoubleDouble zx = new FractalDoubleDouble(0, 0);
+            FractalDoubleDouble zy = new FractalDoubleDouble(0, 0);
+            FractalDoubleDouble zx2 = new FractalDoubleDouble(0, 0);
+            FractalDoubleDouble zy2 = new FractalDoubleDouble(0, 0);
+            FractalDoubleDouble checkX = new FractalDoubleDouble(0, 0);
+            FractalDoubleDouble checkY = new FractalDoubleDouble(0, 0);
+            int checkAt = 1;
+            int iteration = 0;
+
+            while (iteration < maxIterations && zx2.hi + zy2.hi <= 4) {
+                // zy = 2 zx zy + cy
+                zy.multiply(zx);
+                zy.twice();
+                zy.add(cy);
+
+                // zx = zx^2 - zy^2 + cx
+                zx.set(zx2);
+                zx.subtract(zy2);
+                zx.add(cx);
+
+                zx2.set(zx);
+                zx2.square();
+                zy2.set(zy);
+                zy2.square();
+                iteration ++;
+
+                if (mPeriodicityCheck) {
+                    double dx = (zx.hi - checkX.hi) + (zx.lo - checkX.lo);
+                    double dy = (zy.hi - checkY.hi) + (zy.lo - checkY.lo);
+                    if (dx * dx + dy * dy < DOUBLE_DOUBLE_PERIODICITY_EPSILON_SQUARED) {
+                        return maxIterations;
+                    }
+                    if (iteration == checkAt) {
+                        checkX.set(zx);
+                        checkY.set(zy);
+                        checkAt <<= 1;
+                    }
+                }
+            }
+
+            return iteration;
+        }
+    }
+
+    // The orbit of the point in the middle of the viewport, iterated with BigDecimals and stored as doubles
+    private static class ReferenceOrbit {
+        private final BigDecimal mX;
+        private final BigDecimal mY;
+        private final int mMaxIterations;
+
+        // Z_0 up to and including the first value that escaped, or Z_maxIterations
+        final double[] orbitX;
+        final double[] orbitY;
+        final int length;
+
+        // Whether the orbit was caught in a cycle, found like the periodicity check does
+        final boolean periodic;
+
+        ReferenceOrbit(BigDecimal x, BigDecimal y, int maxIterations, MathContext mathContext) {
+            mX = x;
+            mY = y;
+            mMaxIterations = maxIterations;
+            orbitX = new double[maxIterations + 1];
+            orbitY = new double[maxIterations + 1];
+
+            BigDecimal two = BigDecimal.valueOf(2);
+            BigDecimal zx = BigDecimal.ZERO;
+            BigDecimal zy = BigDecimal.ZERO;
+            boolean periodic = false;
+            int checkAt = 1;
+            int n = 0;
+            while (n < maxIterations) {
+                BigDecimal zx2 = zx.multiply(zx, mathContext);
+                BigDecimal zy2 = zy.multiply(zy, mathContext);
+                zy = two.multiply(zx).multiply(zy, mathContext).add(y, mathContext);
+                zx = zx2.subtract(zy2).add(x, mathContext);
+                n ++;
+
+                orbitX[n] = zx.doubleValue();
+                orbitY[n] = zy.doubleValue();
+                if (orbitX[n] * orbitX[n] + orbitY[n] * orbitY[n] > 4) {
+                    break;
+                }
+
+                double dx = orbitX[n] - orbitX[checkAt >> 1];
+                double dy = orbitY[n] - orbitY[checkAt >> 1];
+                periodic |= dx * dx + dy * dy < PERIODICITY_EPSILON_SQUARED;
+                if (n == checkAt) {
+                    checkAt <<= 1;
+                }
+            }
+            length = n + 1;
+            this.periodic = periodic;
+        }
+
+        boolean isFor(BigDecimal x, BigDecimal y, int maxIterations) {
+            return mX.equals(x) && mY.equals(y) && mMaxIterations == maxIterations;
+        }
+    }
+
+    // Iterates the difference dz between a pixel's orbit and the reference orbit Z:
+    // dz = 2 Z dz + dz^2 + dc, where dc is the pixel's offset from the reference point.
+    private static class PerturbationKernel implements Kernel {
+        private final ReferenceOrbit mOrbit;
+
+        PerturbationKernel(ReferenceOrbit orbit) {
+            mOrbit = orbit;
+        }
+
+        @Override
+        public int iterate(double x, double y, int maxIterations) {
+            double[] orbitX = mOrbit.orbitX;
+            double[] orbitY = mOrbit.orbitY;
+            int last = mOrbit.length - 1;
+            double dzx = 0;
+            double dzy = 0;
+            int m = 0;
+
+            for (int iteration = 0; iteration < maxIterations; iteration ++) {
+                // dz = (2 Z + dz) dz + dc
+                double tx = 2 * orbitX[m] + dzx;
+                double ty = 2 * orbitY[m] + dzy;
+                double ndzx = tx * dzx - ty * dzy + x;
+                dzy = tx * dzy + ty * dzx + y;
+                dzx = ndzx;
+                m ++;
+
+                // The pixel's own value
+                double zx = orbitX[m] + dzx;
+                double zy = orbitY[m] + dzy;
+                double magnitude = zx * zx + zy * zy;
+                if (magnitude > 4) {
+                    return iteration + 1;
+                }
+
+                // When z gets closer to 0 than dz, dz has lost its precision relative to z (a glitch). Rebase by
+                // continuing from the start of the reference orbit with z itself as difference. The same goes for
+                // running out of reference orbit, but z then only has the precision of a double, so the few pixels
+                // that outlive a reference that escapes can be off by some iterations.
+                if (magnitude < dzx * dzx + dzy * dzy || m == last) {
+                    dzx = zx;
+                    dzy = zy;
+                    m = 0;
+                }
+            }
+
+            return maxIterations;
+        }
+    }
+
+    // The settings for this fractal
     @Override
     FractalSetting[] buildFractalSettings() {
-        return new FractalSetting[0];
+        return new FractalSetting[] {
+                new FractalSettingColor(this, Color.BLACK, "Inside color"),
+                new FractalSettingColor(this, new Color(0, 7, 100), "Outer color"),
+                new FractalSettingColor(this, new Color(255, 237, 160), "Edge color"),
+                new FractalSettingNumber(this, new SpinnerNumberModel(256, 1, 100000, 1), "Max iterations",
+                        RenderStage.Iteration),
+                new FractalSettingBoolean(this, false, "Deep zoom", RenderStage.Iteration),
+                new FractalSettingBoolean(this, true, "Rectangle subdivision", RenderStage.Iteration),
+                new FractalSettingBoolean(this, false, "Verify subdivision", RenderStage.Iteration),
+                new FractalSettingBoolean(this, true, "Interior test", RenderStage.Iteration),
+                new FractalSettingBoolean(this, true, "Periodicity check", RenderStage.Iteration),
+                new FractalSettingBoolean(this, true, "Vector kernel", RenderStage.Iteration),
+                new FractalSettingBoolean(this, true, "Automatic precision", RenderStage.Iteration),
+                new FractalSettingBoolean(this, false, "Histogram coloring", RenderStage.Coloring)
+        };
+    }
+
+    // Helper functions for getting values from FractalSettings
+    @Override
+    Color getInsideColor() {
+        return FractalSetting.getColorAt(getFractalSettings(), 0);
+    }
+
+    @Override
+    Color getOuterColor() {
+        return FractalSetting.getColorAt(getFractalSettings(), 1);
+    }
+
+    @Override
+    Color getEdgeColor() {
+        return FractalSetting.getColorAt(getFractalSettings(), 2);
+    }
+
+    @Override
+    int getMaxIterations() {
+        return FractalSetting.getNumberAt(getFractalSettings(), 3);
+    }
+
+    private boolean isDeepZoom() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 4);
+    }
+
+    @Override
+    boolean isSubdivision() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 5);
+    }
+
+    @Override
+    boolean isVerifySubdivision() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 6);
+    }
+
+    private boolean isInteriorTest() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 7);
+    }
+
+    private boolean isPeriodicityCheck() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 8);
+    }
+
+    @Override
+    boolean isVectorKernel() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 9);
+    }
+
+    @Override
+    boolean isAutomaticPrecision() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 10);
+    }
+
+    @Override
+    boolean isHistogramColoring() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 11);
     }
 }
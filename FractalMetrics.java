@@ -0,0 +1,287 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Render statistics of a single FractalType. The statistics of every type are
+ * registered with the platform MBeanServer as FractalViewer:type=Metrics,
+ * so they can be watched with JConsole. Frame latencies are counted in a
+ * histogram with buckets that double in size.
+ */
+public class FractalMetrics implements FractalMetricsMBean {
+    // Bucket 0 holds frames below 1 ms, bucket i frames below 2^i ms and the last bucket everything slower
+    private static final int BUCKET_COUNT = 16;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private static final FractalMetrics[] METRICS = createMetrics();
+
+    private final Fractal.FractalType mType;
+
+    // Whole frames, from the request until the last pass
+    private final long[] mFrameHistogram = new long[BUCKET_COUNT];
+    private long mFrameCount;
+    private long mFrameNanos;
+    private long mMaxFrameNanos;
+
+    // Work done while drawing tiles
+    private long mDrawNanos;
+    private long mPrimitiveCount;
+    private long mPixelCount;
+    private long mIterationCount;
+
+    private long mTileHits;
+    private long mTileMisses;
+
+    // Time spent painting frames onto the viewer
+    private long mPaintCount;
+    private long mPaintNanos;
+
+    // Precision of the last escape-time draw, and the number of draws in each precision
+    private FractalEscapeTime.Precision mPrecision;
+    private final long[] mPrecisionCounts = new long[FractalEscapeTime.Precision.values().length];
+
+    // Subdivided pixels that were compared with computing them one by one, and the ones that differed
+    private long mVerifiedPixels;
+    private long mSubdivisionErrors;
+
+    private FractalMetrics(Fractal.FractalType type) {
+        mType = type;
+    }
+
+    static FractalMetrics get(Fractal.FractalType type) {
+        return METRICS[type.ordinal()];
+    }
+
+    private static FractalMetrics[] createMetrics() {
+        Fractal.FractalType[] types = Fractal.FractalType.values();
+        FractalMetrics[] metrics = new FractalMetrics[types.length];
+        for (int i = 0; i < types.length; i ++) {
+            metrics[i] = new FractalMetrics(types[i]);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics[i],
+                        new ObjectName("FractalViewer:type=Metrics,fractal=" + types[i].name()));
+            } catch (JMException e) {
+                // Rendering works fine without, there just won't be anything to see in JConsole
+                System.err.println("Could not register the metrics of " + types[i].name() + ": " + e.getMessage());
+            }
+        }
+        return metrics;
+    }
+
+    synchronized void recordFrame(long nanos) {
+        mFrameHistogram[getBucket(nanos)] ++;
+        mFrameCount ++;
+        mFrameNanos += nanos;
+        mMaxFrameNanos = Math.max(mMaxFrameNanos, nanos);
+    }
+
+    // Records the work of a single draw
+    synchronized void recordDraw(long nanos, FractalRenderBudget budget) {
+        mDrawNanos += nanos;
+        mPrimitiveCount += budget.getPrimitives();
+        mPixelCount += budget.getPixels();
+        mIterationCount += budget.getIterations();
+    }
+
+    synchronized void recordTileLookup(boolean hit) {
+        if (hit) {
+            mTileHits ++;
+        } else {
+            mTileMisses ++;
+        }
+    }
+
+    synchronized void recordPrecision(FractalEscapeTime.Precision precision) {
+        mPrecision = precision;
+        mPrecisionCounts[precision.ordinal()] ++;
+    }
+
+    synchronized void recordSubdivisionCheck(long pixels, long errors) {
+        mVerifiedPixels += pixels;
+        mSubdivisionErrors += errors;
+    }
+
+    synchronized void recordPaint(long nanos) {
+        mPaintCount ++;
+        mPaintNanos += nanos;
+    }
+
+    private static int getBucket(long nanos) {
+        long millis = nanos / NANOS_PER_MILLI;
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    // Upper bound of the bucket that holds the given fraction of the frames, but no more than the slowest frame
+    private synchronized long getPercentile(double fraction) {
+        long threshold = (long) Math.ceil(mFrameCount * fraction);
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i ++) {
+            count += mFrameHistogram[i];
+            if (count >= threshold) {
+                return Math.min(1L << i, getMaxFrameMillis());
+            }
+        }
+        return getMaxFrameMillis();
+    }
+
+    @Override
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public synchronized double getMeanFrameMillis() {
+        return mFrameCount == 0 ? 0 : (double) mFrameNanos / mFrameCount / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized long getMaxFrameMillis() {
+        return mMaxFrameNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getFrameMillisP50() {
+        return getPercentile(0.5);
+    }
+
+    @Override
+    public long getFrameMillisP90() {
+        return getPercentile(0.9);
+    }
+
+    @Override
+    public long getFrameMillisP99() {
+        return getPercentile(0.99);
+    }
+
+    @Override
+    public synchronized long[] getFrameHistogram() {
+        return mFrameHistogram.clone();
+    }
+
+    @Override
+    public String[] getFrameHistogramBuckets() {
+        String[] buckets = new String[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT - 1; i ++) {
+            buckets[i] = "< " + (1L << i) + " ms";
+        }
+        buckets[BUCKET_COUNT - 1] = ">= " + (1L << (BUCKET_COUNT - 2)) + " ms";
+        return buckets;
+    }
+
+    @Override
+    public synchronized long getPrimitiveCount() {
+        return mPrimitiveCount;
+    }
+
+    @Override
+    public synchronized long getPixelCount() {
+        return mPixelCount;
+    }
+
+    @Override
+    public synchronized long getIterationCount() {
+        return mIterationCount;
+    }
+
+    @Override
+    public synchronized double getPixelsPerSecond() {
+        return mDrawNanos == 0 ? 0 : mPixelCount * 1e9 / mDrawNanos;
+    }
+
+    @Override
+    public synchronized double getIterationsPerSecond() {
+        return mDrawNanos == 0 ? 0 : mIterationCount * 1e9 / mDrawNanos;
+    }
+
+    @Override
+    public synchronized double getTileCacheHitRate() {
+        long lookups = mTileHits + mTileMisses;
+        return lookups == 0 ? 0 : (double) mTileHits / lookups;
+    }
+
+    @Override
+    public synchronized double getMeanPaintMillis() {
+        return mPaintCount == 0 ? 0 : (double) mPaintNanos / mPaintCount / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized String getPrecision() {
+        return mPrecision == null ? "" : mPrecision.getName();
+    }
+
+    @Override
+    public synchronized long[] getPrecisionCounts() {
+        return mPrecisionCounts.clone();
+    }
+
+    @Override
+    public String[] getPrecisionNames() {
+        FractalEscapeTime.Precision[] precisions = FractalEscapeTime.Precision.values();
+        String[] names = new String[precisions.length];
+        for (int i = 0; i < precisions.length; i ++) {
+            names[i] = precisions[i].getName();
+        }
+        return names;
+    }
+
+    @Override
+    public synchronized long getVerifiedPixelCount() {
+        return mVerifiedPixels;
+    }
+
+    @Override
+    public synchronized long getSubdivisionErrorCount() {
+        return mSubdivisionErrors;
+    }
+
+    @Override
+    public synchronized void reset() {
+        Arrays.fill(mFrameHistogram, 0);
+        mFrameCount = 0;
+        mFrameNanos = 0;
+        mMaxFrameNanos = 0;
+        mDrawNanos = 0;
+        mPrimitiveCount = 0;
+        mPixelCount = 0;
+        mIterationCount = 0;
+        mTileHits = 0;
+        mTileMisses = 0;
+        mPaintCount = 0;
+        mPaintNanos = 0;
+        Arrays.fill(mPrecisionCounts, 0);
+        mVerifiedPixels = 0;
+        mSubdivisionErrors = 0;
+    }
+
+    // A few lines that summarize the statistics, for the overlay of the viewer
+    synchronized String[] getSummary() {
+        String[] summary = new String[] {
+                Fractal.getFractalTypeName(mType),
+                String.format("Frames: %d, mean %.1f ms, p90 %d ms, max %d ms",
+                        mFrameCount, getMeanFrameMillis(), getFrameMillisP90(), getMaxFrameMillis()),
+                String.format("Primitives: %d", mPrimitiveCount),
+                String.format("Pixels: %.2f M/s, iterations: %.2f M/s",
+                        getPixelsPerSecond() / 1e6, getIterationsPerSecond() / 1e6),
+                String.format("Tile cache hit rate: %.0f%%", getTileCacheHitRate() * 100),
+                String.format("Paint: %.2f ms", getMeanPaintMillis())
+        };
+
+        // Only escape-time fractals have a precision
+        if (mPrecision != null) {
+            summary = Arrays.copyOf(summary, summary.length + 1);
+            summary[summary.length - 1] = "Precision: " + mPrecision.getName();
+        }
+
+        // Only while subdivision is being verified
+        if (mVerifiedPixels > 0) {
+            summary = Arrays.copyOf(summary, summary.length + 1);
+            summary[summary.length - 1] = String.format("Subdivision errors: %d of %d pixels", mSubdivisionErrors,
+                    mVerifiedPixels);
+        }
+        return summary;
+    }
+}
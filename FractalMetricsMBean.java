@@ -0,0 +1,52 @@
+/**
+ * The render statistics of a FractalType as they are shown in JConsole.
+ */
+public interface FractalMetricsMBean {
+    long getFrameCount();
+
+    double getMeanFrameMillis();
+
+    long getMaxFrameMillis();
+
+    // Percentiles are the upper bound of the histogram bucket they fall in, capped by the slowest frame
+    long getFrameMillisP50();
+
+    long getFrameMillisP90();
+
+    long getFrameMillisP99();
+
+    // Number of frames per bucket, see getFrameHistogramBuckets for the bounds
+    long[] getFrameHistogram();
+
+    String[] getFrameHistogramBuckets();
+
+    // Lines and squares drawn
+    long getPrimitiveCount();
+
+    // Pixels and iterations computed by escape-time fractals
+    long getPixelCount();
+
+    long getIterationCount();
+
+    double getPixelsPerSecond();
+
+    double getIterationsPerSecond();
+
+    double getTileCacheHitRate();
+
+    double getMeanPaintMillis();
+
+    // Precision of the last escape-time draw, and the number of draws per precision
+    String getPrecision();
+
+    long[] getPrecisionCounts();
+
+    String[] getPrecisionNames();
+
+    // Pixels that were computed again to verify rectangle subdivision, and the ones where subdivision was wrong
+    long getVerifiedPixelCount();
+
+    long getSubdivisionErrorCount();
+
+    void reset();
+}
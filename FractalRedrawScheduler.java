@@ -0,0 +1,55 @@
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Merges invalidations so a redraw happens at most once per frame interval.
+ * The first invalidation after a quiet period redraws right away, the ones
+ * that follow within the interval are merged into a single redraw at its end.
+ * Redraws look at the state at the moment they happen, so intermediate states
+ * are skipped. Only to be used on the event dispatch thread.
+ */
+class FractalRedrawScheduler {
+    // About 60 frames per second
+    static final int FRAME_INTERVAL = 16;
+
+    private final Runnable mRedraw;
+    private final Timer mTimer;
+
+    // When the last redraw happened, in System.nanoTime
+    private long mLastRedraw;
+    private boolean mHasRedrawn;
+
+    FractalRedrawScheduler(Runnable redraw) {
+        mRedraw = redraw;
+        mTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redraw();
+            }
+        });
+        mTimer.setRepeats(false);
+    }
+
+    // Asks for a redraw, which happens now or at the end of the current frame interval
+    void schedule() {
+        // A redraw is already on its way and will see the latest state
+        if (mTimer.isRunning()) {
+            return;
+        }
+
+        long elapsedMillis = (System.nanoTime() - mLastRedraw) / 1_000_000L;
+        if (!mHasRedrawn || elapsedMillis >= FRAME_INTERVAL) {
+            redraw();
+        } else {
+            mTimer.setInitialDelay((int) (FRAME_INTERVAL - elapsedMillis));
+            mTimer.start();
+        }
+    }
+
+    private void redraw() {
+        mLastRedraw = System.nanoTime();
+        mHasRedrawn = true;
+        mRedraw.run();
+    }
+}
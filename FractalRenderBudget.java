@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the work of a single draw. A draw stops once its deadline has passed,
+ * it drew more primitives (lines and squares) than allowed, or the thread that
+ * created the budget was interrupted, and then reports that it didn't finish.
+ */
+class FractalRenderBudget {
+    // The clock and the thread are only looked at every this many primitives, because that costs more than drawing
+    private static final int CHECK_INTERVAL = 256;
+
+    // In System.nanoTime
+    private final long mStart;
+    private final long mTimeNanos;
+    private final long mMaxPrimitives;
+
+    // Draws are cancelled by interrupting this thread, the budget may be checked from other threads
+    private final Thread mRenderThread;
+
+    private final AtomicLong mPrimitives = new AtomicLong();
+
+    // Work done by escape-time fractals, which don't draw primitives, only kept for the metrics
+    private final AtomicLong mPixels = new AtomicLong();
+    private final AtomicLong mIterations = new AtomicLong();
+    private volatile boolean mExhausted;
+
+    // A budget that only runs out when the render is cancelled
+    FractalRenderBudget() {
+        this(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    FractalRenderBudget(long timeNanos, long maxPrimitives) {
+        mStart = System.nanoTime();
+        mTimeNanos = timeNanos;
+        mMaxPrimitives = maxPrimitives;
+        mRenderThread = Thread.currentThread();
+    }
+
+    // Records primitives that are about to be drawn, returns false when they should not be drawn anymore
+    boolean spend(int primitives) {
+        if (mExhausted) {
+            return false;
+        }
+
+        long total = mPrimitives.addAndGet(primitives);
+        if (total > mMaxPrimitives) {
+            mExhausted = true;
+            return false;
+        }
+
+        // Only look at the clock when a multiple of the interval was passed
+        if ((total - primitives) / CHECK_INTERVAL != total / CHECK_INTERVAL) {
+            return !isExhausted();
+        }
+        return true;
+    }
+
+    // Whether the draw should stop, once it returns true it keeps doing so
+    boolean isExhausted() {
+        if (!mExhausted && (System.nanoTime() - mStart > mTimeNanos || mRenderThread.isInterrupted())) {
+            mExhausted = true;
+        }
+        return mExhausted;
+    }
+
+    // Records pixels that were computed, together with the iterations that took
+    void addPixels(long pixels, long iterations) {
+        mPixels.addAndGet(pixels);
+        mIterations.addAndGet(iterations);
+    }
+
+    long getPrimitives() {
+        return mPrimitives.get();
+    }
+
+    long getPixels() {
+        return mPixels.get();
+    }
+
+    long getIterations() {
+        return mIterations.get();
+    }
+}
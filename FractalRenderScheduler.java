@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs all render work, interactive and in the background, on one pool with a
+ * thread per core. Waiting jobs are taken by priority and then by order, so
+ * the tiles in the middle of the viewer come first and exports only get the
+ * workers nobody else needs. Jobs are not interrupted for more important ones,
+ * so background work should come in small jobs. A job that splits its work up
+ * runs the parts on the same pool, in the place of the job in the queue.
+ */
+class FractalRenderScheduler {
+    // The scheduler everything renders on
+    static final FractalRenderScheduler SHARED = new FractalRenderScheduler(Runtime.getRuntime().availableProcessors());
+
+    private final PriorityBlockingQueue<Runnable> mQueue = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor mExecutor;
+
+    // Jobs with the same priority and order run in the order they were submitted
+    private final AtomicLong mSequence = new AtomicLong();
+
+    // The job that is running on the current thread, if any
+    private static final ThreadLocal<Job<?>> CURRENT_JOB = new ThreadLocal<>();
+
+    FractalRenderScheduler(int threads) {
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, mQueue, new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                // Don't keep the application alive just because of the workers
+                Thread thread = new Thread(runnable, "Fractal render worker " + (++ mCount));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Queues a job. Among jobs with the same priority, the one with the lowest order runs first.
+    <T> Job<T> submit(Callable<T> callable, Priority priority, double order) {
+        Job<T> job = new Job<>(callable, priority, order, mSequence.getAndIncrement());
+        mExecutor.execute(job);
+        return job;
+    }
+
+    // Runs tasks in parallel and waits for them. They are queued with the priority and order of the job that runs
+    // this, so they don't get ahead of more important work, or as visible work when this doesn't run in a job. The
+    // calling thread runs the tasks that no worker has taken yet, so it never waits for tasks that are queued behind
+    // it. Like the tasks themselves, this isn't interrupted, tasks are expected to check their budget instead.
+    void invokeAll(List<? extends Runnable> tasks) {
+        Job<?> current = CURRENT_JOB.get();
+        Priority priority = current != null ? current.mPriority : Priority.Visible;
+        double order = current != null ? current.mOrder : 0;
+
+        // The first task is left to this thread
+        List<Job<Object>> jobs = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i ++) {
+            Job<Object> job = new Job<>(Executors.callable(tasks.get(i)), priority, order,
+                    mSequence.getAndIncrement());
+            if (i > 0) {
+                mExecutor.execute(job);
+            }
+            jobs.add(job);
+        }
+
+        // Running a job that a worker took already does nothing
+        for (Job<Object> job : jobs) {
+            job.run();
+        }
+
+        boolean interrupted = false;
+        try {
+            for (Job<Object> job : jobs) {
+                while (true) {
+                    try {
+                        job.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A render task failed", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Moves a job that is still waiting to another place in the queue
+    void reprioritize(Job<?> job, Priority priority, double order) {
+        synchronized (job) {
+            if (job.mPriority == priority && job.mOrder == order) {
+                return;
+            }
+
+            // The queue only sorts a job when it is added, so take it out while changing it
+            boolean waiting = mQueue.remove(job);
+            job.mPriority = priority;
+            job.mOrder = order;
+            if (waiting) {
+                mExecutor.execute(job);
+            }
+        }
+    }
+
+    enum Priority {
+        // Tiles within the viewport
+        Visible,
+        // Tiles that are likely to become visible soon
+        Prefetch,
+        // Batch renders and animation exports
+        Export
+    }
+
+    // A job as it waits in the queue, cancel it to take it out or to interrupt it while it runs
+    static class Job<T> extends FutureTask<T> implements Comparable<Job<?>> {
+        private final long mSequence;
+        private volatile Priority mPriority;
+        private volatile double mOrder;
+
+        Job(Callable<T> callable, Priority priority, double order, long sequence) {
+            super(callable);
+            mPriority = priority;
+            mOrder = order;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            // Tasks that this job splits off take its place in the queue
+            Job<?> previous = CURRENT_JOB.get();
+            CURRENT_JOB.set(this);
+            try {
+                super.run();
+            } finally {
+                CURRENT_JOB.set(previous);
+            }
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            int result = mPriority.compareTo(other.mPriority);
+            if (result == 0) {
+                result = Double.compare(mOrder, other.mOrder);
+            }
+            if (result == 0) {
+                result = Long.compare(mSequence, other.mSequence);
+            }
+            return result;
+        }
+    }
+}
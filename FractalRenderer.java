@@ -0,0 +1,530 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders Fractals into images on a background thread. Only the latest
+ * request matters, so a new request cancels the one that is in progress.
+ *
+ * A frame is first rendered with a small budget, so a coarse version shows up
+ * quickly, and then again with larger budgets until it is complete. Tiles that
+ * were completed are cached, so later passes only redo the unfinished ones.
+ * When only the coloring changed, the fractals color what they computed
+ * before, so the frame is rendered completely right away.
+ *
+ * The tiles themselves are rendered on the shared FractalRenderScheduler, from
+ * the middle of the viewport outwards. Once a frame is complete, the tiles
+ * around it are prefetched. Tiles that are still being rendered when a new
+ * frame is requested are kept if the new frame needs them.
+ */
+public class FractalRenderer {
+    // Budget of the first pass, divided over the tiles of the frame
+    private static final long INITIAL_FRAME_NANOS = 50_000_000L;
+    private static final long INITIAL_FRAME_PRIMITIVES = 200_000L;
+
+    // Each pass gets this many times the budget of the previous one
+    private static final int BUDGET_GROWTH = 4;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            // Don't keep the application alive just because of the render thread
+            Thread thread = new Thread(runnable, "Fractal renderer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final FrameListener mListener;
+
+    // Tiles are kept around so panning back and forth doesn't render them again
+    private final FractalTileCache mTileCache = new FractalTileCache(64L * 1024 * 1024);
+
+    private final FractalRenderScheduler mScheduler = FractalRenderScheduler.SHARED;
+
+    // Only touched on the event dispatch thread
+    private Future<?> mCurrentRender;
+    private long mGeneration;
+
+    // Tiles that were handed to the scheduler but not yet used, only touched on the render thread
+    private final Map<FractalTileCache.TileKey, FractalRenderScheduler.Job<RenderedTile>> mPendingTiles =
+            new HashMap<>();
+
+    // Tiles that are only partly rendered because the rest is mirrored, these can't be reused by the next frame
+    private final List<FractalRenderScheduler.Job<RenderedTile>> mPartialTiles = new ArrayList<>();
+
+    FractalRenderer(FrameListener listener) {
+        mListener = listener;
+    }
+
+    // Starts rendering a new frame, cancelling the frame that is currently being rendered. The stage is the earliest
+    // one that changed since the previous request.
+    void requestRender(Fractal fractal, int width, int height, Fractal.RenderStage stage) {
+        if (mCurrentRender != null) {
+            mCurrentRender.cancel(true);
+        }
+
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        // Take a snapshot so the fractal can keep changing while we render
+        final Fractal snapshot = fractal.snapshot();
+        final long generation = ++ mGeneration;
+        mCurrentRender = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                FractalMetrics metrics = FractalMetrics.get(snapshot.getFractalType());
+                long start = System.nanoTime();
+                long frameNanos = INITIAL_FRAME_NANOS;
+                long framePrimitives = INITIAL_FRAME_PRIMITIVES;
+
+                // Coloring again is cheap, and a coarse version would look worse than the frame that is shown now
+                if (stage == Fractal.RenderStage.Coloring) {
+                    frameNanos = Long.MAX_VALUE;
+                    framePrimitives = Long.MAX_VALUE;
+                }
+
+                while (true) {
+                    BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                    boolean complete = renderFrame(snapshot, frame, width, height, frameNanos, framePrimitives);
+
+                    // Throw the result away if this render was cancelled halfway
+                    if (Fractal.isRenderCancelled()) {
+                        return;
+                    }
+
+                    // Show what we have, even if it is only a coarse version
+                    publishFrame(frame, snapshot.getView(), generation);
+                    if (complete) {
+                        metrics.recordFrame(System.nanoTime() - start);
+                        prefetch(snapshot, width, height);
+                        return;
+                    }
+
+                    // Refine with a larger budget
+                    if (frameNanos < Long.MAX_VALUE / BUDGET_GROWTH) {
+                        frameNanos *= BUDGET_GROWTH;
+                    }
+                    if (framePrimitives < Long.MAX_VALUE / BUDGET_GROWTH) {
+                        framePrimitives *= BUDGET_GROWTH;
+                    }
+                }
+            }
+        });
+    }
+
+    // Hands a frame to the listener on the event dispatch thread
+    private void publishFrame(BufferedImage frame, FractalView view, long generation) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                // A newer frame may have been requested in the meantime
+                if (generation == mGeneration) {
+                    mListener.onFrameRendered(frame, view);
+                }
+            }
+        });
+    }
+
+    // Puts a frame together from tiles, only rendering the tiles that aren't cached. The budget is divided over the
+    // tiles. Returns whether all tiles are complete.
+    private boolean renderFrame(Fractal fractal, BufferedImage frame, int width, int height,
+                                long frameNanos, long framePrimitives) {
+        Graphics2D g = frame.createGraphics();
+        FractalMetrics metrics = FractalMetrics.get(fractal.getFractalType());
+        boolean complete = true;
+
+        try {
+            // Find the tiles that cover the viewport
+            int tileSize = FractalTileCache.TILE_SIZE;
+            int panX = fractal.getPanX();
+            int panY = fractal.getPanY();
+            Rectangle tiles = getVisibleTiles(fractal, width, height);
+            int firstTileX = tiles.x;
+            int firstTileY = tiles.y;
+            int lastTileX = tiles.x + tiles.width - 1;
+            int lastTileY = tiles.y + tiles.height - 1;
+            String stateKey = fractal.getStateKey();
+            int tileCount = (lastTileX - firstTileX + 1) * (lastTileY - firstTileY + 1);
+
+            // Tiles that are the mirror image of others are put together from those once they are rendered
+            Map<Point, RenderedTile> sources = new HashMap<>();
+            Point symmetryCenter = fractal.getSymmetryCenter(width, height);
+            Map<Point, MirroredTile> mirrored = symmetryCenter != null
+                    ? findMirroredTiles(fractal, tiles, width, height, symmetryCenter, sources)
+                    : new HashMap<Point, MirroredTile>();
+
+            // Draw the cached tiles right away and schedule the others
+            Map<FractalTileCache.TileKey, FractalRenderScheduler.Job<RenderedTile>> jobs = new HashMap<>();
+            Map<Point, FractalRenderScheduler.Job<RenderedTile>> partialJobs = new HashMap<>();
+            List<Point> mirroring = new ArrayList<>();
+            for (int tileY = firstTileY; tileY <= lastTileY; tileY ++) {
+                for (int tileX = firstTileX; tileX <= lastTileX; tileX ++) {
+                    FractalTileCache.TileKey key = new FractalTileCache.TileKey(fractal.getFractalType(),
+                            stateKey, fractal.getZoom(), width, height, tileX, tileY);
+
+                    BufferedImage tile = mTileCache.get(key);
+                    metrics.recordTileLookup(tile != null);
+                    if (tile != null) {
+                        g.drawImage(tile, tileX * tileSize + panX, tileY * tileSize + panY, null);
+                        sources.put(new Point(tileX, tileY), new RenderedTile(tile, tileX, tileY, true));
+                        continue;
+                    }
+
+                    // Only render the part of a mirrored tile that can't be mirrored
+                    double order = getDistanceToCenter(tileX, tileY, width, height, panX, panY);
+                    Point point = new Point(tileX, tileY);
+                    MirroredTile mirror = mirrored.get(point);
+                    if (mirror != null) {
+                        if (mirror.rest != null) {
+                            partialJobs.put(point, submitTile(fractal, key, width, height, tileX, tileY, mirror.rest,
+                                    frameNanos / tileCount, Math.max(1, framePrimitives / tileCount),
+                                    FractalRenderScheduler.Priority.Visible, order));
+                        }
+                        mirroring.add(point);
+                        continue;
+                    }
+
+                    // Reuse the tile if it is already being rendered, otherwise render it with its share of the budget
+                    FractalRenderScheduler.Job<RenderedTile> job = mPendingTiles.remove(key);
+                    if (job != null && !job.isCancelled()) {
+                        mScheduler.reprioritize(job, FractalRenderScheduler.Priority.Visible, order);
+                    } else {
+                        job = submitTile(fractal, key, width, height, tileX, tileY, null, frameNanos / tileCount,
+                                Math.max(1, framePrimitives / tileCount), FractalRenderScheduler.Priority.Visible,
+                                order);
+                    }
+                    jobs.put(key, job);
+                }
+            }
+
+            // Whatever else is pending isn't needed anymore
+            for (FractalRenderScheduler.Job<RenderedTile> job : mPendingTiles.values()) {
+                job.cancel(true);
+            }
+            mPendingTiles.clear();
+            mPendingTiles.putAll(jobs);
+            for (FractalRenderScheduler.Job<RenderedTile> job : mPartialTiles) {
+                job.cancel(true);
+            }
+            mPartialTiles.clear();
+            mPartialTiles.addAll(partialJobs.values());
+
+            // Wait for the tiles. When this render is cancelled in the meantime, they are left pending so the next
+            // frame can use them.
+            for (FractalRenderScheduler.Job<RenderedTile> job : jobs.values()) {
+                RenderedTile tile = job.get();
+                g.drawImage(tile.image, tile.tileX * tileSize + panX, tile.tileY * tileSize + panY, null);
+                sources.put(new Point(tile.tileX, tile.tileY), tile);
+                if (!tile.complete) {
+                    complete = false;
+                }
+            }
+            mPendingTiles.clear();
+
+            // Mirror the rest of the mirrored tiles, they are as complete as the tiles they come from
+            for (Point point : mirroring) {
+                FractalRenderScheduler.Job<RenderedTile> job = partialJobs.get(point);
+                RenderedTile tile = mirrorTile(point.x, point.y, symmetryCenter, mirrored.get(point), sources,
+                        job != null ? job.get() : null);
+                FractalTileCache.TileKey key = new FractalTileCache.TileKey(fractal.getFractalType(), stateKey,
+                        fractal.getZoom(), width, height, point.x, point.y);
+                g.drawImage(tile.image, tile.tileX * tileSize + panX, tile.tileY * tileSize + panY, null);
+                if (tile.complete) {
+                    mTileCache.put(key, tile.image);
+                } else {
+                    complete = false;
+                }
+            }
+            mPartialTiles.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not render a tile", e.getCause());
+        } finally {
+            g.dispose();
+        }
+
+        return complete;
+    }
+
+    // Finds the visible tiles that can be put together, at least in part, from the 180 degree rotation of tiles that
+    // are visible or cached. Tiles are only mirrored from tiles that aren't mirrored themselves, and the pixels whose
+    // mirror image isn't available are rendered as a single rectangle. Going through the tiles from the top left
+    // mirrors the top and the left, going from the bottom right does the opposite, and whichever leaves the fewest
+    // pixels to render is used. Cached tiles they come from that aren't visible are put into the sources.
+    private Map<Point, MirroredTile> findMirroredTiles(Fractal fractal, Rectangle tiles, int width, int height,
+                                                       Point center, Map<Point, RenderedTile> sources) {
+        int tileSize = FractalTileCache.TILE_SIZE;
+        String stateKey = fractal.getStateKey();
+        int count = tiles.width * tiles.height;
+        Map<Point, MirroredTile> best = new HashMap<>();
+        long bestPixels = Long.MAX_VALUE;
+        for (boolean reverse : new boolean[] { false, true }) {
+            Map<Point, MirroredTile> mirrored = new HashMap<>();
+            Set<Point> used = new HashSet<>();
+            Map<Point, RenderedTile> cached = new HashMap<>();
+            long pixels = 0;
+            for (int i = 0; i < count; i ++) {
+                int index = reverse ? count - 1 - i : i;
+                Point point = new Point(tiles.x + index % tiles.width, tiles.y + index / tiles.width);
+                FractalTileCache.TileKey key = new FractalTileCache.TileKey(fractal.getFractalType(), stateKey,
+                        fractal.getZoom(), width, height, point.x, point.y);
+                if (mTileCache.contains(key)) {
+                    continue;
+                }
+                pixels += tileSize * tileSize;
+
+                // Tiles that others come from or that are already being rendered stay as they are
+                FractalRenderScheduler.Job<RenderedTile> pending = mPendingTiles.get(key);
+                if (used.contains(point) || pending != null && !pending.isCancelled()) {
+                    continue;
+                }
+
+                Rectangle mirror = getMirror(getTileBounds(point.x, point.y), center);
+                Rectangle from = getMirroredTiles(point.x, point.y, center);
+                List<Point> froms = new ArrayList<>();
+                Rectangle rest = null;
+                for (int y = from.y; y < from.y + from.height; y ++) {
+                    for (int x = from.x; x < from.x + from.width; x ++) {
+                        Point source = new Point(x, y);
+                        boolean available = !source.equals(point) && !mirrored.containsKey(source);
+                        if (available && !tiles.contains(source) && !cached.containsKey(source)) {
+                            BufferedImage tile = mTileCache.get(new FractalTileCache.TileKey(fractal.getFractalType(),
+                                    stateKey, fractal.getZoom(), width, height, x, y));
+                            if (tile != null) {
+                                cached.put(source, new RenderedTile(tile, x, y, true));
+                            } else {
+                                available = false;
+                            }
+                        }
+
+                        if (available) {
+                            froms.add(source);
+                        } else {
+                            Rectangle part = getMirror(mirror.intersection(getTileBounds(x, y)), center);
+                            rest = rest != null ? rest.union(part) : part;
+                        }
+                    }
+                }
+                if (froms.isEmpty() || rest != null && rest.width == tileSize && rest.height == tileSize) {
+                    continue;
+                }
+
+                if (rest != null) {
+                    rest.translate(-point.x * tileSize, -point.y * tileSize);
+                    pixels -= tileSize * tileSize - (long) rest.width * rest.height;
+                } else {
+                    pixels -= tileSize * tileSize;
+                }
+                mirrored.put(point, new MirroredTile(froms, rest));
+                used.addAll(froms);
+            }
+
+            if (pixels < bestPixels) {
+                best = mirrored;
+                bestPixels = pixels;
+                sources.clear();
+                sources.putAll(cached);
+            }
+        }
+        return best;
+    }
+
+    // The pixels a tile covers, without pan
+    private static Rectangle getTileBounds(int tileX, int tileY) {
+        int tileSize = FractalTileCache.TILE_SIZE;
+        return new Rectangle(tileX * tileSize, tileY * tileSize, tileSize, tileSize);
+    }
+
+    // The 180 degree rotation of a rectangle of pixels around the doubled center
+    private static Rectangle getMirror(Rectangle bounds, Point center) {
+        return new Rectangle(center.x - bounds.x - bounds.width + 1, center.y - bounds.y - bounds.height + 1,
+                bounds.width, bounds.height);
+    }
+
+    // The tiles that hold the 180 degree rotation of a tile, counted in tiles
+    private static Rectangle getMirroredTiles(int tileX, int tileY, Point center) {
+        int tileSize = FractalTileCache.TILE_SIZE;
+        Rectangle mirror = getMirror(getTileBounds(tileX, tileY), center);
+        int firstTileX = Math.floorDiv(mirror.x, tileSize);
+        int firstTileY = Math.floorDiv(mirror.y, tileSize);
+        return new Rectangle(firstTileX, firstTileY, Math.floorDiv(mirror.x + tileSize - 1, tileSize) - firstTileX + 1,
+                Math.floorDiv(mirror.y + tileSize - 1, tileSize) - firstTileY + 1);
+    }
+
+    // Completes a tile with the 180 degree rotation of the tiles it mirrors, pixel for pixel. The rendered part, if
+    // there is one, is mirrored into.
+    private static RenderedTile mirrorTile(int tileX, int tileY, Point center, MirroredTile mirrorTile,
+                                           Map<Point, RenderedTile> sources, RenderedTile rendered) {
+        int tileSize = FractalTileCache.TILE_SIZE;
+        BufferedImage image = rendered != null
+                ? rendered.image : new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        boolean complete = rendered == null || rendered.complete;
+
+        // The pixel at x, y of the tile comes from center - x, center - y, which walks the sources backwards
+        int left = tileX * tileSize;
+        int top = tileY * tileSize;
+        Rectangle mirror = getMirror(getTileBounds(tileX, tileY), center);
+        for (Point point : mirrorTile.sources) {
+            RenderedTile source = sources.get(point);
+            Rectangle part = mirror.intersection(getTileBounds(point.x, point.y));
+            int[] row = new int[part.width];
+            for (int py = part.y; py < part.y + part.height; py ++) {
+                source.image.getRGB(part.x - point.x * tileSize, py - point.y * tileSize, part.width, 1, row, 0,
+                        part.width);
+                int index = (center.y - py - top) * tileSize + center.x - part.x - left;
+                for (int i = 0; i < part.width; i ++) {
+                    pixels[index - i] = row[i];
+                }
+            }
+            if (!source.complete) {
+                complete = false;
+            }
+        }
+        return new RenderedTile(image, tileX, tileY, complete);
+    }
+
+    // Renders the tiles around the viewport in the background, so they are ready when panning
+    private void prefetch(Fractal fractal, int width, int height) {
+        int panX = fractal.getPanX();
+        int panY = fractal.getPanY();
+        Rectangle tiles = getVisibleTiles(fractal, width, height);
+        int firstTileX = tiles.x - 1;
+        int firstTileY = tiles.y - 1;
+        int lastTileX = tiles.x + tiles.width;
+        int lastTileY = tiles.y + tiles.height;
+        String stateKey = fractal.getStateKey();
+
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY ++) {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX ++) {
+                // Only the ring around the viewport
+                if (tileY != firstTileY && tileY != lastTileY && tileX != firstTileX && tileX != lastTileX) {
+                    continue;
+                }
+
+                FractalTileCache.TileKey key = new FractalTileCache.TileKey(fractal.getFractalType(),
+                        stateKey, fractal.getZoom(), width, height, tileX, tileY);
+                if (mTileCache.contains(key)) {
+                    continue;
+                }
+
+                mPendingTiles.put(key, submitTile(fractal, key, width, height, tileX, tileY, null, Long.MAX_VALUE,
+                        Long.MAX_VALUE, FractalRenderScheduler.Priority.Prefetch,
+                        getDistanceToCenter(tileX, tileY, width, height, panX, panY)));
+            }
+        }
+    }
+
+    // The tiles that cover the viewport, counted in tiles rather than pixels. Tiles don't move along with the pan.
+    static Rectangle getVisibleTiles(Fractal fractal, int width, int height) {
+        int tileSize = FractalTileCache.TILE_SIZE;
+        int firstTileX = Math.floorDiv(-fractal.getPanX(), tileSize);
+        int firstTileY = Math.floorDiv(-fractal.getPanY(), tileSize);
+        int lastTileX = Math.floorDiv(width - 1 - fractal.getPanX(), tileSize);
+        int lastTileY = Math.floorDiv(height - 1 - fractal.getPanY(), tileSize);
+        return new Rectangle(firstTileX, firstTileY, lastTileX - firstTileX + 1, lastTileY - firstTileY + 1);
+    }
+
+    // Squared distance from the middle of a tile to the middle of the viewport, in pixels
+    private static double getDistanceToCenter(int tileX, int tileY, int width, int height, int panX, int panY) {
+        double dx = (tileX + 0.5) * FractalTileCache.TILE_SIZE + panX - width / 2d;
+        double dy = (tileY + 0.5) * FractalTileCache.TILE_SIZE + panY - height / 2d;
+        return dx * dx + dy * dy;
+    }
+
+    // Renders a tile on the scheduler, or only a part of it, given in pixels within the tile. Complete tiles go into
+    // the cache.
+    private FractalRenderScheduler.Job<RenderedTile> submitTile(Fractal fractal, FractalTileCache.TileKey key,
+                                                                int width, int height, int tileX, int tileY,
+                                                                Rectangle part, long nanos, long primitives,
+                                                                FractalRenderScheduler.Priority priority,
+                                                                double order) {
+        return mScheduler.submit(new Callable<RenderedTile>() {
+            @Override
+            public RenderedTile call() {
+                BufferedImage tile = new BufferedImage(FractalTileCache.TILE_SIZE, FractalTileCache.TILE_SIZE,
+                        BufferedImage.TYPE_INT_ARGB);
+
+                // The budget is created on the worker, so cancelling the job also exhausts it
+                FractalRenderBudget budget = new FractalRenderBudget(nanos, primitives);
+                long start = System.nanoTime();
+                boolean complete = renderTile(fractal, tile, width, height, tileX, tileY, part, budget);
+                FractalMetrics.get(fractal.getFractalType()).recordDraw(System.nanoTime() - start, budget);
+
+                if (complete && part == null) {
+                    mTileCache.put(key, tile);
+                }
+                return new RenderedTile(tile, tileX, tileY, complete);
+            }
+        }, priority, order);
+    }
+
+    // Draws the part of the fractal that falls within a tile, or within the given part of it, as far as the budget
+    // allows. Returns whether it is complete.
+    private static boolean renderTile(Fractal fractal, BufferedImage tile, int width, int height, int tileX, int tileY,
+                                      Rectangle part, FractalRenderBudget budget) {
+        int tileSize = FractalTileCache.TILE_SIZE;
+        Graphics2D g = tile.createGraphics();
+
+        try {
+            // Move the tile's top left corner to the origin and only draw what is inside it
+            int left = tileX * tileSize + fractal.getPanX();
+            int top = tileY * tileSize + fractal.getPanY();
+            g.translate(-left, -top);
+            if (part != null) {
+                g.clipRect(left + part.x, top + part.y, part.width, part.height);
+            } else {
+                g.clipRect(left, top, tileSize, tileSize);
+            }
+            return fractal.draw(g, width, height, budget);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // A tile as it comes back from the scheduler
+    private static class RenderedTile {
+        final BufferedImage image;
+        final int tileX;
+        final int tileY;
+        final boolean complete;
+
+        RenderedTile(BufferedImage image, int tileX, int tileY, boolean complete) {
+            this.image = image;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.complete = complete;
+        }
+    }
+
+    // A tile that is mirrored from other tiles, except for the rest, which is rendered if it isn't null
+    private static class MirroredTile {
+        final List<Point> sources;
+        final Rectangle rest;
+
+        MirroredTile(List<Point> sources, Rectangle rest) {
+            this.sources = sources;
+            this.rest = rest;
+        }
+    }
+
+    interface FrameListener {
+        void onFrameRendered(BufferedImage frame, FractalView view);
+    }
+}
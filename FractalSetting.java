@@ -7,10 +7,17 @@ import java.awt.*;
  */
 public abstract class FractalSetting {
     protected final Fractal mFractal;
+    private final Fractal.RenderStage mRenderStage;
     private JComponent mJComponent;
 
-    FractalSetting(Fractal fractal) {
+    FractalSetting(Fractal fractal, Fractal.RenderStage renderStage) {
         mFractal = fractal;
+        mRenderStage = renderStage;
+    }
+
+    // The first stage of drawing that has to be redone when the setting changes
+    Fractal.RenderStage getRenderStage() {
+        return mRenderStage;
     }
 
     // Function used for preventing duplicate JComponents
@@ -27,11 +34,27 @@ public abstract class FractalSetting {
     // Builds the UI component that controls the setting
     abstract JComponent buildJComponent();
 
+    // Gets the value of the setting as it is stored in a settings file
+    abstract String serialize();
+
+    // Sets a value that was read from a settings file
+    abstract void deserialize(String serialized);
+
     // Helper function that gets numeric values from a FractalSetting array
     static int getNumberAt(FractalSetting[] fractalSettings, int index) {
         return ((FractalSettingNumber) fractalSettings[index]).getValue();
     }
 
+    // Helper function that gets decimal values from a FractalSetting array
+    static double getDecimalAt(FractalSetting[] fractalSettings, int index) {
+        return ((FractalSettingDecimal) fractalSettings[index]).getValue();
+    }
+
+    // Helper function that gets toggle values from a FractalSetting array
+    static boolean getBooleanAt(FractalSetting[] fractalSettings, int index) {
+        return ((FractalSettingBoolean) fractalSettings[index]).getValue();
+    }
+
     // Helper function that gets Color objects from a FractalSetting array
     static Color getColorAt(FractalSetting[] fractalSettings, int index) {
         return ((FractalSettingColor) fractalSettings[index]).getValue();
@@ -0,0 +1,63 @@
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * An implementation of FractalSetting, is a toggle.
+ */
+public class FractalSettingBoolean extends FractalSetting {
+    private final String mLabel;
+    private boolean mValue;
+    private JCheckBox mCheckBox;
+
+    FractalSettingBoolean(Fractal fractal, boolean defaultValue, String label) {
+        this(fractal, defaultValue, label, Fractal.RenderStage.Geometry);
+    }
+
+    FractalSettingBoolean(Fractal fractal, boolean defaultValue, String label, Fractal.RenderStage renderStage) {
+        super(fractal, renderStage);
+
+        mValue = defaultValue;
+        mLabel = label;
+    }
+
+    public boolean getValue() {
+        return mValue;
+    }
+
+    public void setInitialValue(boolean value) {
+        mValue = value;
+        if (mCheckBox != null) {
+            mCheckBox.setSelected(value);
+        }
+    }
+
+    @Override
+    String getLabel() {
+        return mLabel;
+    }
+
+    @Override
+    String serialize() {
+        return String.valueOf(mValue);
+    }
+
+    @Override
+    void deserialize(String serialized) {
+        setInitialValue(Boolean.valueOf(serialized));
+    }
+
+    @Override
+    JComponent buildJComponent() {
+        mCheckBox = new JCheckBox();
+        mCheckBox.setSelected(mValue);
+        mCheckBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                mValue = mCheckBox.isSelected();
+                mFractal.invalidate(getRenderStage());
+            }
+        });
+        return mCheckBox;
+    }
+}
@@ -10,7 +10,7 @@ public class FractalSettingColor extends FractalSetting {
     private final String mLabel;
     private Color mColor;
     FractalSettingColor(Fractal fractal, Color defaultColor, String label) {
-        super(fractal);
+        super(fractal, Fractal.RenderStage.Coloring);
 
         mColor = defaultColor;
         mLabel = label;
@@ -29,6 +29,17 @@ public class FractalSettingColor extends FractalSetting {
         return mLabel;
     }
 
+    @Override
+    String serialize() {
+        return mColor.getRed() + "," + mColor.getGreen() + "," + mColor.getBlue();
+    }
+
+    @Override
+    void deserialize(String serialized) {
+        String[] split = serialized.split(",");
+        setInitialValue(new Color(Integer.parseInt(split[0]), Integer.parseInt(split[1]), Integer.parseInt(split[2])));
+    }
+
     @Override
     JComponent buildJComponent() {
         final JButton button = new JButton();
@@ -37,7 +48,7 @@ public class FractalSettingColor extends FractalSetting {
             public void actionPerformed(ActionEvent e) {
                 mColor = JColorChooser.showDialog(null, "Choose a color", mColor);
                 button.setBackground(mColor);
-                mFractal.invalidate();
+                mFractal.invalidate(getRenderStage());
             }
         });
         button.setBackground(mColor);
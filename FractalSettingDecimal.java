@@ -0,0 +1,63 @@
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * An implementation of FractalSetting, is a decimal number.
+ */
+public class FractalSettingDecimal extends FractalSetting {
+    private final String mLabel;
+    private double mValue;
+    private final SpinnerNumberModel mSpinnerModel;
+
+    FractalSettingDecimal(Fractal fractal, SpinnerNumberModel spinnerModel, String label) {
+        this(fractal, spinnerModel, label, Fractal.RenderStage.Geometry);
+    }
+
+    FractalSettingDecimal(Fractal fractal, SpinnerNumberModel spinnerModel, String label,
+                          Fractal.RenderStage renderStage) {
+        super(fractal, renderStage);
+
+        mLabel = label;
+        mSpinnerModel = spinnerModel;
+        mValue = ((Number) spinnerModel.getValue()).doubleValue();
+    }
+
+    public double getValue() {
+        return mValue;
+    }
+
+    public void setInitialValue(double value) {
+        mSpinnerModel.setValue(value);
+        mValue = value;
+    }
+
+    @Override
+    String getLabel() {
+        return mLabel;
+    }
+
+    @Override
+    String serialize() {
+        return String.valueOf(mValue);
+    }
+
+    @Override
+    void deserialize(String serialized) {
+        setInitialValue(Double.valueOf(serialized));
+    }
+
+    @Override
+    JComponent buildJComponent() {
+        JSpinner spinner = new JSpinner(mSpinnerModel);
+        spinner.setEditor(new JSpinner.NumberEditor(spinner, "0.000##"));
+        spinner.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                mValue = ((Number) spinner.getValue()).doubleValue();
+                mFractal.invalidate(getRenderStage());
+            }
+        });
+        return spinner;
+    }
+}
@@ -11,7 +11,12 @@ public class FractalSettingNumber extends FractalSetting {
     private final SpinnerNumberModel mSpinnerModel;
 
     FractalSettingNumber(Fractal fractal, SpinnerNumberModel spinnerModel, String label) {
-        super(fractal);
+        this(fractal, spinnerModel, label, Fractal.RenderStage.Geometry);
+    }
+
+    FractalSettingNumber(Fractal fractal, SpinnerNumberModel spinnerModel, String label,
+                         Fractal.RenderStage renderStage) {
+        super(fractal, renderStage);
 
         mLabel = label;
         mSpinnerModel = spinnerModel;
@@ -32,6 +37,16 @@ public class FractalSettingNumber extends FractalSetting {
         return mLabel;
     }
 
+    @Override
+    String serialize() {
+        return String.valueOf(mValue);
+    }
+
+    @Override
+    void deserialize(String serialized) {
+        setInitialValue(Integer.valueOf(serialized));
+    }
+
     @Override
     JComponent buildJComponent() {
         JSpinner spinner = new JSpinner(mSpinnerModel);
@@ -39,7 +54,7 @@ public class FractalSettingNumber extends FractalSetting {
             @Override
             public void stateChanged(ChangeEvent e) {
                 mValue = (int) spinner.getValue();
-                mFractal.invalidate();
+                mFractal.invalidate(getRenderStage());
             }
         });
         return spinner;
@@ -1,5 +1,9 @@
 import javax.swing.*;
 import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Impl. of Sierpinski fractal
@@ -9,15 +13,50 @@ public class FractalSierpinski extends Fractal {
         super(FractalType.Sierpinski);
     }
 
+    // Rows per task when rendering in raster mode
+    private static final int RASTER_ROWS_PER_TASK = 16;
+
     @Override
-    void draw(Graphics g, int width, int height) {
-        // Draw background
-        g.setColor(getBackgroundColor());
-        g.fillRect(0, 0, width, height);
+    boolean draw(Graphics g, int width, int height, FractalRenderBudget budget) {
+        // Only the part that needs drawing is of interest
+        Rectangle viewport = getDrawBounds(g, width, height);
+        if (viewport.isEmpty()) {
+            return true;
+        }
+
+        // When only the colors changed since this part was drawn, color its mask again
+        FractalIterationCache.FieldKey key = getFieldKey(viewport, width, height);
+        FractalCoverageMask mask = FractalCoverageMask.get(key);
+        if (mask != null) {
+            mask.draw(g, viewport.getLocation(), getBackgroundColor(), getForegroundColor());
+            return true;
+        }
+
+        // Cover the squares on a mask and color that, complete masks are kept for when the colors change
+        mask = new FractalCoverageMask(viewport.width, viewport.height);
+        Graphics2D maskGraphics = mask.createGraphics(viewport.getLocation());
+        boolean complete;
+        try {
+            complete = drawSierpinski(maskGraphics, mask, viewport, width, height, budget);
+        } finally {
+            maskGraphics.dispose();
+        }
+
+        // Don't draw anything when the render was cancelled, the part that is done is still useful otherwise
+        if (isRenderCancelled()) {
+            return false;
+        }
 
-        // Set foreground color
-        g.setColor(getForegroundColor());
+        if (complete) {
+            FractalCoverageMask.put(key, mask);
+        }
+        mask.draw(g, viewport.getLocation(), getBackgroundColor(), getForegroundColor());
+        return complete;
+    }
 
+    // Covers the squares that fall within the viewport
+    private boolean drawSierpinski(Graphics g, FractalCoverageMask mask, Rectangle viewport, int width, int height,
+                                   FractalRenderBudget budget) {
         // Get iterations
         int iterations = getIterations();
 
@@ -28,62 +67,227 @@ public class FractalSierpinski extends Fractal {
         double left = (width - dimension) / 2 + getPanX();
         double top = (height - dimension) / 2 + getPanY();
 
-        g.fillRect((int) left, (int) top, (int) dimension, (int) dimension);
+        if (isRasterMode()) {
+            return drawSierpinskiRaster(mask, viewport, iterations, left, top, dimension, budget);
+        }
+
+        if (!budget.spend(1)) {
+            return false;
+        }
+        fillRect(g, viewport, left, top, dimension, dimension);
 
         // More than 1 iterations?
-        if (iterations != 1) {
-            // Start drawing recursively
-            drawSierpinskiRecursive(g, 1, iterations, left, top, dimension);
+        if (iterations == 1) {
+            return true;
         }
+        return drawSierpinskiBreadthFirst(g, viewport, iterations, left, top, dimension, budget);
     }
 
-    private void drawSierpinskiRecursive(Graphics g, int iteration, int finalIteration, double left, double top, double dimension) {
-        iteration ++;
+    // Draws the 8 squares around every square of a level, each a third of its size, one level at a time so the
+    // coarse shape is there when the budget runs out halfway
+    private boolean drawSierpinskiBreadthFirst(Graphics g, Rectangle viewport, int finalIteration,
+                                               double left, double top, double dimension,
+                                               FractalRenderBudget budget) {
+        // Squares of the previous level, stored as left, top. They all have the same dimension.
+        double[] frontier = { left, top };
+        int frontierCount = 1;
 
-        dimension /= Math.pow(3, iteration - 1);
+        for (int iteration = 2; frontierCount > 0; iteration ++) {
+            double parentDimension = dimension;
+            dimension /= 3;
 
-        double[] squares = new double[] {
-                left - dimension * 2, top - dimension * 2,
-                left + dimension, top - dimension * 2,
-                left + dimension * 4, top - dimension * 2,
+            // Squares smaller than a pixel don't add anything
+            if (dimension < 1) {
+                break;
+            }
 
-                left - dimension * 2, top + dimension,
-                left + dimension * 4, top + dimension,
+            boolean last = iteration == finalIteration;
+            double[] next = last ? null : new double[frontierCount * 16];
+            int nextCount = 0;
 
-                left - dimension * 2, top + dimension * 4,
-                left + dimension, top + dimension * 4,
-                left + dimension * 4, top + dimension * 4
-        };
+            for (int i = 0; i < frontierCount; i ++) {
+                double parentLeft = frontier[i * 2];
+                double parentTop = frontier[i * 2 + 1];
+
+                // Everything drawn from here on lies within the block of 3 by 3 squares around this one,
+                // so skip it when that block is off screen
+                if (parentLeft + parentDimension * 2 < viewport.x
+                        || parentLeft - parentDimension > viewport.x + viewport.width
+                        || parentTop + parentDimension * 2 < viewport.y
+                        || parentTop - parentDimension > viewport.y + viewport.height) {
+                    continue;
+                }
+
+                double[] squares = new double[] {
+                        parentLeft - dimension * 2, parentTop - dimension * 2,
+                        parentLeft + dimension, parentTop - dimension * 2,
+                        parentLeft + dimension * 4, parentTop - dimension * 2,
+
+                        parentLeft - dimension * 2, parentTop + dimension,
+                        parentLeft + dimension * 4, parentTop + dimension,
+
+                        parentLeft - dimension * 2, parentTop + dimension * 4,
+                        parentLeft + dimension, parentTop + dimension * 4,
+                        parentLeft + dimension * 4, parentTop + dimension * 4
+                };
+
+                if (!budget.spend(8)) {
+                    return false;
+                }
+                for (int j = 0; j < squares.length; j += 2) {
+                    fillRect(g, viewport, squares[j], squares[j + 1], dimension, dimension);
+                }
+
+                if (!last) {
+                    System.arraycopy(squares, 0, next, nextCount * 2, squares.length);
+                    nextCount += 8;
+                }
+            }
+
+            frontier = next;
+            frontierCount = nextCount;
+        }
+
+        return true;
+    }
+
+    // Decides for every pixel whether it is part of a square by looking at its base 3 digits
+    private boolean drawSierpinskiRaster(FractalCoverageMask mask, Rectangle viewport, int iterations,
+                                         double left, double top, double dimension, FractalRenderBudget budget) {
+        // The first square is the middle of the carpet, which is 3 times as large
+        double carpetLeft = left - dimension;
+        double carpetTop = top - dimension;
+        double carpetDimension = dimension * 3;
 
-        for (int i = 0; i < squares.length; i += 2) {
-            fillRect(g, squares[i], squares[i + 1], dimension, dimension);
+        // Go as deep as the iterations allow, but never beyond squares of a pixel
+        int depth = 1;
+        for (double squareDimension = dimension / 3; squareDimension >= 1; squareDimension /= 3) {
+            depth ++;
         }
+        if (iterations != 0) {
+            depth = Math.min(depth, iterations);
+        }
+
+        // Fill the rows in parallel on the render scheduler
+        AtomicBoolean skipped = new AtomicBoolean();
+        List<RasterRowTask> tasks = new ArrayList<>();
+        for (int row = 0; row < viewport.height; row += RASTER_ROWS_PER_TASK) {
+            tasks.add(new RasterRowTask(mask.getData(), viewport, row, Math.min(row + RASTER_ROWS_PER_TASK,
+                    viewport.height), carpetLeft, carpetTop, carpetDimension, depth, budget, skipped));
+        }
+        FractalRenderScheduler.SHARED.invokeAll(tasks);
+        return !skipped.get();
+    }
+
+    // A point is in a square when, at any of the first depth base 3 digits of its carpet coordinates,
+    // both digits are 1. Coordinates range from 0 to 1 within the carpet.
+    static boolean isInSquare(double u, double v, int depth) {
+        if (u < 0 || u >= 1 || v < 0 || v >= 1) {
+            return false;
+        }
+
+        for (int i = 0; i < depth; i ++) {
+            u *= 3;
+            v *= 3;
+            int digitU = (int) u;
+            int digitV = (int) v;
+            if (digitU == 1 && digitV == 1) {
+                return true;
+            }
+            u -= digitU;
+            v -= digitV;
+        }
+
+        return false;
+    }
 
-        if (iteration != finalIteration) {
-            if (finalIteration == 0) {
+    // Fills a range of rows of the mask
+    private static class RasterRowTask implements Runnable {
+        private final byte[] mMask;
+        private final Rectangle mViewport;
+        private final int mFrom;
+        private final int mTo;
+        private final double mCarpetLeft;
+        private final double mCarpetTop;
+        private final double mCarpetDimension;
+        private final int mDepth;
+        private final FractalRenderBudget mBudget;
+
+        // Set when rows were left out because the budget ran out
+        private final AtomicBoolean mSkipped;
+
+        RasterRowTask(byte[] mask, Rectangle viewport, int from, int to,
+                      double carpetLeft, double carpetTop, double carpetDimension, int depth,
+                      FractalRenderBudget budget, AtomicBoolean skipped) {
+            mMask = mask;
+            mViewport = viewport;
+            mFrom = from;
+            mTo = to;
+            mCarpetLeft = carpetLeft;
+            mCarpetTop = carpetTop;
+            mCarpetDimension = carpetDimension;
+            mDepth = depth;
+            mBudget = budget;
+            mSkipped = skipped;
+        }
+
+        @Override
+        public void run() {
+            // Stop when the frame is no longer needed or has taken long enough
+            if (mBudget.isExhausted()) {
+                mSkipped.set(true);
                 return;
             }
-            for (int i = 0; i < squares.length; i += 2) {
-                drawSierpinskiRecursive(g, iteration, finalIteration, squares[i], squares[i + 1], dimension);
+
+            for (int row = mFrom; row < mTo; row ++) {
+                // Sample the center of each pixel
+                double v = (mViewport.y + row + 0.5 - mCarpetTop) / mCarpetDimension;
+                int offset = row * mViewport.width;
+                for (int column = 0; column < mViewport.width; column ++) {
+                    double u = (mViewport.x + column + 0.5 - mCarpetLeft) / mCarpetDimension;
+                    mMask[offset + column] = isInSquare(u, v, mDepth) ? (byte) 1 : 0;
+                }
             }
+
+            mBudget.addPixels((long) (mTo - mFrom) * mViewport.width, 0);
         }
     }
 
-    private static void fillRect(Graphics g, double x, double y, double width, double height) {
+    private static void fillRect(Graphics g, Rectangle viewport, double x, double y, double width, double height) {
+        // Deep zooms produce squares that don't fit in an int, so cut them to the viewport first
+        double right = Math.min(x + width, viewport.x + viewport.width + 1);
+        double bottom = Math.min(y + height, viewport.y + viewport.height + 1);
+        x = Math.max(x, viewport.x - 1);
+        y = Math.max(y, viewport.y - 1);
+        if (x >= right || y >= bottom) {
+            return;
+        }
+
         int ix = (int) Math.round(x);
         int iy = (int) Math.round(y);
-        int iwidth = (int) Math.round(width);
-        int iheight = (int) Math.round(height);
+        int iwidth = (int) Math.round(right) - ix;
+        int iheight = (int) Math.round(bottom) - iy;
         g.fillRect(ix, iy, iwidth, iheight);
     }
 
+    @Override
+    ByteBuffer getCachedField(FractalIterationCache.FieldKey key) {
+        return FractalCoverageMask.getField(key);
+    }
+
+    @Override
+    int getCachedFieldBytesPerPixel() {
+        return FractalCoverageMask.BYTES_PER_PIXEL;
+    }
+
     // The settings for this fractal
     @Override
     FractalSetting[] buildFractalSettings() {
         return new FractalSetting[] {
                 new FractalSettingColor(this, new Color(253, 226, 134), "Background color"),
                 new FractalSettingColor(this, new Color(73, 127, 243), "Foreground color"),
-                new FractalSettingNumber(this, new SpinnerNumberModel(0, 0, 1000, 1), "Iterations")
+                new FractalSettingNumber(this, new SpinnerNumberModel(0, 0, 1000, 1), "Iterations"),
+                new FractalSettingBoolean(this, false, "Raster mode", RenderStage.Iteration)
         };
     }
 
@@ -99,4 +303,8 @@ public class FractalSierpinski extends Fractal {
     private int getIterations() {
         return FractalSetting.getNumberAt(getFractalSettings(), 2);
     }
+
+    private boolean isRasterMode() {
+        return FractalSetting.getBooleanAt(getFractalSettings(), 3);
+    }
 }
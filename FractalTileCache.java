@@ -0,0 +1,99 @@
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of rendered tiles, bounded by the memory the
+ * tiles take up. Tiles are positioned in pan-independent pixel space, so a
+ * tile can be reused as long as the fractal, its settings, the zoom and the
+ * viewport size are the same.
+ */
+public class FractalTileCache {
+    // Width and height of a single tile in pixels
+    static final int TILE_SIZE = 256;
+
+    private final long mMaxBytes;
+    private long mBytes;
+
+    // Access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<TileKey, BufferedImage> mTiles = new LinkedHashMap<>(64, 0.75f, true);
+
+    FractalTileCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    // Gets a tile, or null if it is not in the cache
+    synchronized BufferedImage get(TileKey key) {
+        return mTiles.get(key);
+    }
+
+    synchronized void put(TileKey key, BufferedImage tile) {
+        BufferedImage previous = mTiles.put(key, tile);
+        if (previous != null) {
+            mBytes -= getBytes(previous);
+        }
+        mBytes += getBytes(tile);
+
+        // Evict the least recently used tiles until we're within bounds again
+        Iterator<Map.Entry<TileKey, BufferedImage>> iterator = mTiles.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            mBytes -= getBytes(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    // Whether a tile is in the cache, without counting as a use of it
+    synchronized boolean contains(TileKey key) {
+        return mTiles.containsKey(key);
+    }
+
+    private static long getBytes(BufferedImage tile) {
+        return (long) tile.getWidth() * tile.getHeight() * 4;
+    }
+
+    // Identifies a tile. Tile coordinates are in pixels divided by TILE_SIZE, without pan.
+    static class TileKey {
+        private final Fractal.FractalType mType;
+        private final String mStateKey;
+        private final double mZoom;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mTileX;
+        private final int mTileY;
+
+        TileKey(Fractal.FractalType type, String stateKey, double zoom, int width, int height, int tileX, int tileY) {
+            mType = type;
+            mStateKey = stateKey;
+            mZoom = zoom;
+            mWidth = width;
+            mHeight = height;
+            mTileX = tileX;
+            mTileY = tileY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return mType == other.mType && mStateKey.equals(other.mStateKey)
+                    && Double.compare(mZoom, other.mZoom) == 0
+                    && mWidth == other.mWidth && mHeight == other.mHeight
+                    && mTileX == other.mTileX && mTileY == other.mTileY;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mType.hashCode();
+            result = 31 * result + mStateKey.hashCode();
+            result = 31 * result + Double.hashCode(mZoom);
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + mTileX;
+            result = 31 * result + mTileY;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Escape-time kernels that iterate as many points at once as fit in a vector
+ * register, using the incubating Vector API. The lanes of points that are done
+ * are masked off, until all lanes are done. Every lane goes through exactly
+ * the same operations as the scalar kernels, so both give the same results.
+ *
+ * Vectors are only fast when the JIT can keep them in registers, which it
+ * can't across calls that aren't inlined or when they are assigned in
+ * branches. That's why every loop over vectors is within a single method, and
+ * options get a loop of their own instead of a branch inside of it.
+ *
+ * The Vector API is only available when the JVM is started with
+ * --add-modules jdk.incubator.vector, so this class must only be used after
+ * FractalEscapeTime.isVectorSupported() said so. Compiling it takes the same
+ * option, as in javac --add-modules jdk.incubator.vector *.java, which the
+ * pom.xml passes as well. The tests check that it gives the same results as
+ * the scalar kernels.
+ */
+public abstract class FractalVectorKernel implements FractalEscapeTime.Kernel {
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // Single points are left to the scalar kernel
+    private final FractalEscapeTime.Kernel mScalarKernel;
+
+    FractalVectorKernel(FractalEscapeTime.Kernel scalarKernel) {
+        mScalarKernel = scalarKernel;
+    }
+
+    @Override
+    public int iterate(double x, double y, int maxIterations) {
+        return mScalarKernel.iterate(x, y, maxIterations);
+    }
+
+    // Copies the lanes of a result that are in range to the iteration counts, through the indices if there are any
+    static void store(double[] lanes, int[] iterations, int[] indices, int offset, int count) {
+        for (int lane = 0; lane < lanes.length && offset + lane < count; lane ++) {
+            iterations[indices != null ? indices[offset + lane] : offset + lane] = (int) lanes[lane];
+        }
+    }
+
+    // Vector version of FractalMandelbrot's kernel
+    static class Mandelbrot extends FractalVectorKernel {
+        private final double mCenterX;
+        private final double mCenterY;
+        private final boolean mInteriorTest;
+        private final boolean mPeriodicityCheck;
+
+        Mandelbrot(FractalEscapeTime.Kernel scalarKernel, double centerX, double centerY, boolean interiorTest,
+                   boolean periodicityCheck) {
+            super(scalarKernel);
+            mCenterX = centerX;
+            mCenterY = centerY;
+            mInteriorTest = interiorTest;
+            mPeriodicityCheck = periodicityCheck;
+        }
+
+        @Override
+        public void iterate(double[] x, double[] y, int[] iterations, int count, int maxIterations) {
+            // Points in the main cardioid or the period-2 bulb are taken out first, so they don't take up lanes
+            double[] remainingX = x;
+            double[] remainingY = y;
+            int[] remainingIndex = null;
+            int remaining = count;
+            if (mInteriorTest) {
+                remainingX = new double[count];
+                remainingY = new double[count];
+                remainingIndex = new int[count];
+                remaining = 0;
+                for (int i = 0; i < count; i ++) {
+                    if (FractalMandelbrot.isInMainComponents(mCenterX + x[i], mCenterY + y[i])) {
+                        iterations[i] = maxIterations;
+                    } else {
+                        remainingX[remaining] = x[i];
+                        remainingY[remaining] = y[i];
+                        remainingIndex[remaining] = i;
+                        remaining ++;
+                    }
+                }
+            }
+
+            if (mPeriodicityCheck) {
+                iteratePeriodic(remainingX, remainingY, remainingIndex, remaining, iterations, maxIterations);
+            } else {
+                iterateEscape(remainingX, remainingY, remainingIndex, remaining, iterations, maxIterations);
+            }
+        }
+
+        // Iterates until every point escaped or ran out of iterations. The indices tell where the results go.
+        private void iterateEscape(double[] x, double[] y, int[] indices, int count, int[] iterations,
+                                   int maxIterations) {
+            double[] lanes = new double[SPECIES.length()];
+            DoubleVector zero = DoubleVector.zero(SPECIES);
+
+            for (int i = 0; i < count; i += SPECIES.length()) {
+                VectorMask<Double> active = SPECIES.indexInRange(i, count);
+                DoubleVector cx = DoubleVector.fromArray(SPECIES, x, i, active).add(mCenterX);
+                DoubleVector cy = DoubleVector.fromArray(SPECIES, y, i, active).add(mCenterY);
+                DoubleVector result = DoubleVector.broadcast(SPECIES, maxIterations);
+                DoubleVector zx = zero;
+                DoubleVector zy = zero;
+                DoubleVector zx2 = zero;
+                DoubleVector zy2 = zero;
+
+                for (int iteration = 1; iteration <= maxIterations && active.anyTrue(); iteration ++) {
+                    zy = zx.mul(2).mul(zy).add(cy);
+                    zx = zx2.sub(zy2).add(cx);
+                    zx2 = zx.mul(zx);
+                    zy2 = zy.mul(zy);
+
+                    // Only touch the result when a lane escapes, which is far from every iteration
+                    VectorMask<Double> escaped = zx2.add(zy2).compare(VectorOperators.GT, 4).and(active);
+                    if (escaped.anyTrue()) {
+                        result = result.blend(iteration, escaped);
+                        active = active.andNot(escaped);
+                    }
+                }
+
+                result.intoArray(lanes, 0);
+                store(lanes, iterations, indices, i, count);
+            }
+        }
+
+        // Same as iterateEscape(), but also stops points whose orbit turned out to be periodic
+        private void iteratePeriodic(double[] x, double[] y, int[] indices, int count, int[] iterations,
+                                     int maxIterations) {
+            double[] lanes = new double[SPECIES.length()];
+            DoubleVector zero = DoubleVector.zero(SPECIES);
+
+            for (int i = 0; i < count; i += SPECIES.length()) {
+                VectorMask<Double> active = SPECIES.indexInRange(i, count);
+                DoubleVector cx = DoubleVector.fromArray(SPECIES, x, i, active).add(mCenterX);
+                DoubleVector cy = DoubleVector.fromArray(SPECIES, y, i, active).add(mCenterY);
+                DoubleVector result = DoubleVector.broadcast(SPECIES, maxIterations);
+                DoubleVector zx = zero;
+                DoubleVector zy = zero;
+                DoubleVector zx2 = zero;
+                DoubleVector zy2 = zero;
+                DoubleVector checkX = zero;
+                DoubleVector checkY = zero;
+                int checkAt = 1;
+
+                for (int iteration = 1; iteration <= maxIterations && active.anyTrue(); iteration ++) {
+                    zy = zx.mul(2).mul(zy).add(cy);
+                    zx = zx2.sub(zy2).add(cx);
+                    zx2 = zx.mul(zx);
+                    zy2 = zy.mul(zy);
+
+                    // Lanes whose orbit came back to where it was are inside, even if they escape right now
+                    DoubleVector dx = zx.sub(checkX);
+                    DoubleVector dy = zy.sub(checkY);
+                    active = active.andNot(dx.mul(dx).add(dy.mul(dy))
+                            .lt(FractalMandelbrot.PERIODICITY_EPSILON_SQUARED));
+
+                    // The point to compare with is replaced with a blend, as assigning vectors in a branch keeps the
+                    // JIT from keeping them in registers
+                    VectorMask<Double> replace = SPECIES.maskAll(iteration == checkAt);
+                    checkX = checkX.blend(zx, replace);
+                    checkY = checkY.blend(zy, replace);
+                    if (iteration == checkAt) {
+                        checkAt <<= 1;
+                    }
+
+                    VectorMask<Double> escaped = zx2.add(zy2).compare(VectorOperators.GT, 4).and(active);
+                    if (escaped.anyTrue()) {
+                        result = result.blend(iteration, escaped);
+                        active = active.andNot(escaped);
+                    }
+                }
+
+                result.intoArray(lanes, 0);
+                store(lanes, iterations, indices, i, count);
+            }
+        }
+    }
+
+    // Vector version of FractalJulia's kernel
+    static class Julia extends FractalVectorKernel {
+        private final double mCenterX;
+        private final double mCenterY;
+        private final double mConstantReal;
+        private final double mConstantImaginary;
+
+        Julia(FractalEscapeTime.Kernel scalarKernel, double centerX, double centerY, double constantReal,
+              double constantImaginary) {
+            super(scalarKernel);
+            mCenterX = centerX;
+            mCenterY = centerY;
+            mConstantReal = constantReal;
+            mConstantImaginary = constantImaginary;
+        }
+
+        @Override
+        public void iterate(double[] x, double[] y, int[] iterations, int count, int maxIterations) {
+            double[] lanes = new double[SPECIES.length()];
+
+            for (int i = 0; i < count; i += SPECIES.length()) {
+                VectorMask<Double> active = SPECIES.indexInRange(i, count);
+                DoubleVector zx = DoubleVector.fromArray(SPECIES, x, i, active).add(mCenterX);
+                DoubleVector zy = DoubleVector.fromArray(SPECIES, y, i, active).add(mCenterY);
+                DoubleVector zx2 = zx.mul(zx);
+                DoubleVector zy2 = zy.mul(zy);
+
+                // Points can be outside of the circle to begin with
+                VectorMask<Double> escaped = zx2.add(zy2).compare(VectorOperators.GT, 4).and(active);
+                DoubleVector result = DoubleVector.broadcast(SPECIES, maxIterations).blend(0, escaped);
+                active = active.andNot(escaped);
+
+                for (int iteration = 1; iteration <= maxIterations && active.anyTrue(); iteration ++) {
+                    zy = zx.mul(2).mul(zy).add(mConstantImaginary);
+                    zx = zx2.sub(zy2).add(mConstantReal);
+                    zx2 = zx.mul(zx);
+                    zy2 = zy.mul(zy);
+
+                    // Only touch the result when a lane escapes, which is far from every iteration
+                    escaped = zx2.add(zy2).compare(VectorOperators.GT, 4).and(active);
+                    if (escaped.anyTrue()) {
+                        result = result.blend(iteration, escaped);
+                        active = active.andNot(escaped);
+                    }
+                }
+
+                result.intoArray(lanes, 0);
+                store(lanes, iterations, null, i, count);
+            }
+        }
+    }
+}
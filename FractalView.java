@@ -0,0 +1,94 @@
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
+/**
+ * Zoom and pan of a Fractal at some point in time. The pan is a long, as the
+ * frames of a zoom animation can be further away than a Fractal pans.
+ *
+ * Fractals that move their pan into their center before it overflows (a fold)
+ * also keep the last fold in their view, as the pan starts over from there.
+ */
+public class FractalView {
+    private final double mZoom;
+    private final long mPanX;
+    private final long mPanY;
+    private final Fold mFold;
+
+    FractalView(double zoom, long panX, long panY) {
+        this(zoom, panX, panY, null);
+    }
+
+    FractalView(double zoom, long panX, long panY, Fold fold) {
+        mZoom = zoom;
+        mPanX = panX;
+        mPanY = panY;
+        mFold = fold;
+    }
+
+    double getZoom() {
+        return mZoom;
+    }
+
+    long getPanX() {
+        return mPanX;
+    }
+
+    long getPanY() {
+        return mPanY;
+    }
+
+    // Gets the transform that moves an image rendered with this view to where it would be in another view.
+    // The anchor is the point that stays in place when zooming without pan, see Fractal.getZoomAnchor.
+    AffineTransform getReprojection(FractalView to, Point2D anchor) {
+        // The pans that were folded since this view are still part of where the other view is
+        double foldedX = 0;
+        double foldedY = 0;
+        Fold fold = to.mFold;
+        while (fold != mFold && fold != null) {
+            foldedX += fold.mPanX * to.mZoom / fold.mZoom;
+            foldedY += fold.mPanY * to.mZoom / fold.mZoom;
+            fold = fold.mPrevious;
+        }
+        // Unless this view's fold isn't among them, then the center jumped and there is nothing to go by
+        if (fold != mFold) {
+            foldedX = 0;
+            foldedY = 0;
+        }
+
+        AffineTransform transform = new AffineTransform();
+        transform.translate(anchor.getX() + to.mPanX + foldedX, anchor.getY() + to.mPanY + foldedY);
+        transform.scale(to.mZoom / mZoom, to.mZoom / mZoom);
+        transform.translate(-anchor.getX() - mPanX, -anchor.getY() - mPanY);
+        return transform;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FractalView)) {
+            return false;
+        }
+        FractalView other = (FractalView) o;
+        return Double.compare(mZoom, other.mZoom) == 0 && mPanX == other.mPanX && mPanY == other.mPanY
+                && mFold == other.mFold;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Double.hashCode(mZoom) + Long.hashCode(mPanX)) + Long.hashCode(mPanY);
+    }
+
+    // A pan that was moved into the center at some zoom, after the fold before it
+    static class Fold {
+        private final Fold mPrevious;
+        private final double mZoom;
+        private final long mPanX;
+        private final long mPanY;
+
+        Fold(Fold previous, double zoom, long panX, long panY) {
+            mPrevious = previous;
+            mZoom = zoom;
+            mPanX = panX;
+            mPanY = panY;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Exports the frames of a zoom animation between two views as numbered PNG
+ * images. Frames are rendered in groups: the least zoomed frame of a group is
+ * rendered at twice the resolution (a keyframe), and the other frames of the
+ * group are scaled down from it, as long as they are zoomed in by at most a
+ * factor 2 and fall within it. Groups are rendered in parallel and every frame
+ * is written as soon as it is ready. Frames that already exist are skipped, so
+ * an interrupted export can be resumed.
+ */
+public class FractalZoomExporter {
+    // Keyframes are rendered at this multiple of the frame size, and frames are zoomed in at most this much
+    private static final int KEYFRAME_SCALE = 2;
+
+    private final Fractal mFractal;
+    private final FractalView mStart;
+    private final FractalView mEnd;
+    private final int mFrameCount;
+    private final int mWidth;
+    private final int mHeight;
+    private final File mOutputDirectory;
+
+    FractalZoomExporter(Fractal fractal, FractalView start, FractalView end, int frameCount,
+                        int width, int height, File outputDirectory) {
+        mFractal = fractal.snapshot();
+        mStart = start;
+        mEnd = end;
+        mFrameCount = frameCount;
+        mWidth = width;
+        mHeight = height;
+        mOutputDirectory = outputDirectory;
+    }
+
+    // Exports all frames that don't exist yet and returns the number of frames that were written
+    int export() throws IOException, InterruptedException {
+        if (!mOutputDirectory.isDirectory() && !mOutputDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mOutputDirectory);
+        }
+
+        // Render every group on its own, spread over all cores in the order of the animation
+        List<Future<Integer>> results = new ArrayList<>();
+        for (List<Integer> group : getGroups()) {
+            results.add(FractalRenderScheduler.SHARED.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return exportGroup(group);
+                }
+            }, FractalRenderScheduler.Priority.Export, group.get(0)));
+        }
+
+        int written = 0;
+        try {
+            for (Future<Integer> result : results) {
+                written += result.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Integer> result : results) {
+                result.cancel(true);
+            }
+            throw new IOException(e.getCause());
+        }
+        return written;
+    }
+
+    // The view of a frame. Zoom changes by the same factor every frame, and the point at the anchor moves
+    // along with the size of the view, so a point that is in the same place in both views stays there.
+    FractalView getView(int frame) {
+        double t = mFrameCount > 1 ? (double) frame / (mFrameCount - 1) : 0;
+        double zoom = mStart.getZoom() * Math.pow(mEnd.getZoom() / mStart.getZoom(), t);
+
+        double progress = t;
+        if (mStart.getZoom() != mEnd.getZoom()) {
+            progress = (1 / zoom - 1 / mStart.getZoom()) / (1 / mEnd.getZoom() - 1 / mStart.getZoom());
+        }
+
+        // Position of the anchor in unscaled fractal space
+        double x = -mStart.getPanX() / mStart.getZoom()
+                + (-mEnd.getPanX() / mEnd.getZoom() + mStart.getPanX() / mStart.getZoom()) * progress;
+        double y = -mStart.getPanY() / mStart.getZoom()
+                + (-mEnd.getPanY() / mEnd.getZoom() + mStart.getPanY() / mStart.getZoom()) * progress;
+        return new FractalView(zoom, Math.round(-x * zoom), Math.round(-y * zoom));
+    }
+
+    // Splits the frames in groups that share a keyframe, which is the first frame of each group
+    private List<List<Integer>> getGroups() {
+        // Keyframes have to be the least zoomed frames, so go backwards when zooming out
+        boolean zoomingIn = mEnd.getZoom() >= mStart.getZoom();
+        List<List<Integer>> groups = new ArrayList<>();
+        List<Integer> group = null;
+        FractalView keyframe = null;
+
+        for (int i = 0; i < mFrameCount; i ++) {
+            int frame = zoomingIn ? i : mFrameCount - 1 - i;
+            FractalView view = getView(frame);
+            if (group == null || getKeyframeTransform(keyframe, view) == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+                keyframe = view;
+            }
+            group.add(frame);
+        }
+
+        return groups;
+    }
+
+    // Gets the transform from a keyframe to a frame, or null if the frame can't be made from the keyframe
+    private AffineTransform getKeyframeTransform(FractalView keyframe, FractalView view) {
+        double ratio = view.getZoom() / keyframe.getZoom();
+        if (ratio < 1 || ratio > KEYFRAME_SCALE) {
+            return null;
+        }
+
+        // Move from the keyframe into the frame at keyframe size, then scale down to frame size
+        Point2D anchor = mFractal.getZoomAnchor(mWidth * KEYFRAME_SCALE, mHeight * KEYFRAME_SCALE);
+        AffineTransform transform = AffineTransform.getScaleInstance(1d / KEYFRAME_SCALE, 1d / KEYFRAME_SCALE);
+        transform.concatenate(scaleView(keyframe).getReprojection(scaleView(view), anchor));
+
+        // The whole frame has to be covered by the keyframe
+        try {
+            Point2D topLeft = transform.inverseTransform(new Point2D.Double(0, 0), null);
+            Point2D bottomRight = transform.inverseTransform(new Point2D.Double(mWidth, mHeight), null);
+            if (topLeft.getX() < 0 || topLeft.getY() < 0
+                    || bottomRight.getX() > mWidth * KEYFRAME_SCALE || bottomRight.getY() > mHeight * KEYFRAME_SCALE) {
+                return null;
+            }
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+
+        return transform;
+    }
+
+    // The view that shows the same at keyframe size
+    private static FractalView scaleView(FractalView view) {
+        return new FractalView(view.getZoom(), view.getPanX() * KEYFRAME_SCALE, view.getPanY() * KEYFRAME_SCALE);
+    }
+
+    // Renders the keyframe of a group and writes all of its frames, returns the number of frames written
+    private int exportGroup(List<Integer> group) throws IOException {
+        // Nothing to do when a previous export got through this group already
+        List<Integer> missing = new ArrayList<>();
+        for (int frame : group) {
+            if (!getFrameFile(frame).exists()) {
+                missing.add(frame);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        // Render the keyframe
+        FractalView keyframeView = getView(group.get(0));
+        FractalView scaledView = scaleView(keyframeView);
+        Fractal fractal = mFractal.snapshot();
+        fractal.setView(scaledView.getZoom(), scaledView.getPanX(), scaledView.getPanY(), mWidth * KEYFRAME_SCALE,
+                mHeight * KEYFRAME_SCALE);
+
+        BufferedImage keyframe = new BufferedImage(mWidth * KEYFRAME_SCALE, mHeight * KEYFRAME_SCALE,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D keyframeGraphics = keyframe.createGraphics();
+        try {
+            fractal.draw(keyframeGraphics, keyframe.getWidth(), keyframe.getHeight());
+        } finally {
+            keyframeGraphics.dispose();
+        }
+
+        // Scale every missing frame down from it
+        for (int frame : missing) {
+            BufferedImage image = new BufferedImage(mWidth, mHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(keyframe, getKeyframeTransform(keyframeView, getView(frame)), null);
+            } finally {
+                g.dispose();
+            }
+            writeFrame(image, frame);
+        }
+
+        return missing.size();
+    }
+
+    // Writes to a temporary file first, so a frame that exists is always complete
+    private void writeFrame(BufferedImage image, int frame) throws IOException {
+        File file = getFrameFile(frame);
+        File temporary = new File(file.getPath() + ".tmp");
+        ImageIO.write(image, "png", temporary);
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    private File getFrameFile(int frame) {
+        return new File(mOutputDirectory, String.format("frame_%05d.png", frame));
+    }
+}
@@ -0,0 +1,73 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base for the benchmarks that draw a whole frame of a fractal into an
+ * offscreen image, the same way the viewer and the batch renderer do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector" })
+public abstract class DrawBenchmark {
+    private Object mFractal;
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+    private int mWidth;
+    private int mHeight;
+
+    @Setup
+    public void setUp() {
+        int[] size = Fractals.parseSize(getSize());
+        mWidth = size[0];
+        mHeight = size[1];
+        mFractal = Fractals.create(getFractalType(), getIterations(), getZoom());
+        configure(mFractal);
+        mImage = new BufferedImage(mWidth, mHeight, BufferedImage.TYPE_INT_RGB);
+        mGraphics = mImage.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mGraphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage draw() throws Throwable {
+        // The fractals would only color the iteration counts or coverage masks of the previous draw otherwise
+        Fractals.CLEAR_ITERATION_CACHE.invokeExact();
+        Fractals.CLEAR_COVERAGE_CACHE.invokeExact();
+        Fractals.DRAW.invokeExact(mFractal, (Graphics) mGraphics, mWidth, mHeight);
+        return mImage;
+    }
+
+    // Changes settings of the fractal before it is drawn
+    protected void configure(Object fractal) {
+    }
+
+    protected abstract String getFractalType();
+
+    protected abstract int getIterations();
+
+    protected abstract String getSize();
+
+    protected abstract double getZoom();
+}
@@ -0,0 +1,49 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Draws the escape-time fractals, which compute every pixel on the fork join
+ * pool, with and without rectangle subdivision.
+ */
+public class EscapeTimeDrawBenchmark extends DrawBenchmark {
+    @Param({ "Mandelbrot", "Julia" })
+    public String fractal;
+
+    @Param({ "64", "256", "1024" })
+    public int iterations;
+
+    @Param({ "640x480", "1920x1080" })
+    public String size;
+
+    @Param({ "0.75", "8", "1000" })
+    public double zoom;
+
+    @Param({ "false", "true" })
+    public boolean subdivision;
+
+    @Override
+    protected void configure(Object fractal) {
+        Fractals.set(fractal, "Rectangle subdivision", String.valueOf(subdivision));
+    }
+
+    @Override
+    protected String getFractalType() {
+        return fractal;
+    }
+
+    @Override
+    protected int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    protected String getSize() {
+        return size;
+    }
+
+    @Override
+    protected double getZoom() {
+        return zoom;
+    }
+}
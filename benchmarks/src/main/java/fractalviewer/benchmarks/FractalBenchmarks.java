@@ -0,0 +1,76 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with its
+ * allocation rate, and writes the results to benchmarks.json so runs can be
+ * compared. Takes the usual JMH command line options, for example a regular
+ * expression to only run some of the benchmarks.
+ *
+ * Benchmarks with a shortcuts parameter are also summarized as the speedup of
+ * every setting over running without shortcuts.
+ */
+public class FractalBenchmarks {
+    private static final String SHORTCUTS = "shortcuts";
+    private static final String NO_SHORTCUTS = "none";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("benchmarks.json")
+                .build()).run();
+        printSpeedups(results);
+    }
+
+    // Compares every result with a shortcuts parameter to the result with the same other parameters without them.
+    // Scores are average times, so the speedup is the baseline divided by the score.
+    private static void printSpeedups(Collection<RunResult> results) {
+        Map<String, Double> baselines = new HashMap<>();
+        for (RunResult result : results) {
+            if (NO_SHORTCUTS.equals(result.getParams().getParam(SHORTCUTS))) {
+                baselines.put(getBaselineKey(result.getParams()), result.getPrimaryResult().getScore());
+            }
+        }
+        if (baselines.isEmpty()) {
+            return;
+        }
+
+        System.out.println();
+        System.out.println("Speedup over " + SHORTCUTS + "=" + NO_SHORTCUTS + ":");
+        for (RunResult result : results) {
+            String shortcuts = result.getParams().getParam(SHORTCUTS);
+            Double baseline = baselines.get(getBaselineKey(result.getParams()));
+            if (shortcuts == null || shortcuts.equals(NO_SHORTCUTS) || baseline == null) {
+                continue;
+            }
+            System.out.printf("  %s %s=%s: %.2fx%n", getBaselineKey(result.getParams()), SHORTCUTS, shortcuts,
+                    baseline / result.getPrimaryResult().getScore());
+        }
+    }
+
+    // The benchmark and all of its parameters except for the shortcuts
+    private static String getBaselineKey(BenchmarkParams params) {
+        StringBuilder builder = new StringBuilder(params.getBenchmark());
+        for (String key : params.getParamsKeys()) {
+            if (!key.equals(SHORTCUTS)) {
+                builder.append(' ').append(key).append('=').append(params.getParam(key));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package fractalviewer.benchmarks;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the fractal classes for the benchmarks. Those live in the default
+ * package, which can't be imported from here, so everything goes through
+ * method handles. The handles are static final, so the JIT treats them as
+ * constants and the calls cost about the same as direct ones.
+ */
+final class Fractals {
+    // Fractal.draw(Graphics, int, int)
+    static final MethodHandle DRAW;
+
+    // FractalKoch.drawKochBreadthFirst(Graphics, Rectangle, int, double, double, double, double, FractalRenderBudget)
+    static final MethodHandle DRAW_KOCH_BREADTH_FIRST;
+
+    // FractalKoch.getLineSegmentsOnBase(double, double, double, double)
+    static final MethodHandle GET_LINE_SEGMENTS_ON_BASE;
+
+    // FractalSierpinski.drawSierpinskiBreadthFirst(Graphics, Rectangle, int, double, double, double,
+    // FractalRenderBudget)
+    static final MethodHandle DRAW_SIERPINSKI_BREADTH_FIRST;
+
+    // FractalEscapeTime.clearIterationCache()
+    static final MethodHandle CLEAR_ITERATION_CACHE;
+
+    // FractalCoverageMask.clearCache()
+    static final MethodHandle CLEAR_COVERAGE_CACHE;
+
+    private static final Class<?> FRACTAL = load("Fractal");
+    private static final Class<?> FRACTAL_TYPE = load("Fractal$FractalType");
+    private static final Class<?> FRACTAL_SETTING = load("FractalSetting");
+    private static final Class<?> FRACTAL_RENDER_BUDGET = load("FractalRenderBudget");
+
+    static {
+        Class<?> koch = load("FractalKoch");
+        Class<?> sierpinski = load("FractalSierpinski");
+        DRAW = find(FRACTAL, "draw", Graphics.class, int.class, int.class);
+        DRAW_KOCH_BREADTH_FIRST = find(koch, "drawKochBreadthFirst", Graphics.class, Rectangle.class,
+                int.class, double.class, double.class, double.class, double.class, FRACTAL_RENDER_BUDGET);
+        GET_LINE_SEGMENTS_ON_BASE = find(koch, "getLineSegmentsOnBase",
+                double.class, double.class, double.class, double.class);
+        DRAW_SIERPINSKI_BREADTH_FIRST = find(sierpinski, "drawSierpinskiBreadthFirst", Graphics.class,
+                Rectangle.class, int.class, double.class, double.class, double.class, FRACTAL_RENDER_BUDGET);
+        try {
+            CLEAR_ITERATION_CACHE = MethodHandles.lookup().unreflect(method(load("FractalEscapeTime"),
+                    "clearIterationCache"));
+            CLEAR_COVERAGE_CACHE = MethodHandles.lookup().unreflect(method(load("FractalCoverageMask"),
+                    "clearCache"));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Fractals() {
+    }
+
+    // Creates a fractal with default settings, except for its (max) iterations, and sets its view
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Object create(String type, int iterations, double zoom) {
+        try {
+            Class<? extends Enum> fractalType = (Class<? extends Enum>) FRACTAL_TYPE;
+            Object fractal = method(FRACTAL, "getFractal", FRACTAL_TYPE).invoke(null, Enum.valueOf(fractalType, type));
+
+            // Set the setting that controls the amount of detail
+            set(fractal, "Iterations", String.valueOf(iterations));
+            set(fractal, "Max iterations", String.valueOf(iterations));
+
+            method(FRACTAL, "setView", double.class, int.class, int.class).invoke(fractal, zoom, 0, 0);
+            return fractal;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a " + type + " fractal", e);
+        }
+    }
+
+    // Sets the setting with the given label to a serialized value, if the fractal has it
+    static void set(Object fractal, String label, String value) {
+        try {
+            Method getLabel = method(FRACTAL_SETTING, "getLabel");
+            Method deserialize = method(FRACTAL_SETTING, "deserialize", String.class);
+            for (Object setting : (Object[]) method(FRACTAL, "getFractalSettings").invoke(fractal)) {
+                if (label.equals(getLabel.invoke(setting))) {
+                    deserialize.invoke(setting, value);
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not set " + label, e);
+        }
+    }
+
+    // Creates a budget that only runs out when the current thread is interrupted
+    static Object createUnlimitedBudget() {
+        try {
+            Constructor<?> constructor = FRACTAL_RENDER_BUDGET.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a budget", e);
+        }
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Gets a package-private method
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        Method method = type.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+
+    // Gets a handle to a package-private method, with the receiver and the other fractal classes as Object so it
+    // can be called with invokeExact
+    private static MethodHandle find(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = MethodHandles.lookup().unreflect(method(type, name, parameterTypes));
+            MethodType methodType = handle.type().changeParameterType(0, Object.class);
+            for (int i = 0; i < parameterTypes.length; i ++) {
+                if (parameterTypes[i] == FRACTAL_RENDER_BUDGET) {
+                    methodType = methodType.changeParameterType(i + 1, Object.class);
+                }
+            }
+            return handle.asType(methodType);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Parses a viewport size such as 1920x1080
+    static int[] parseSize(String size) {
+        String[] split = size.split("x");
+        return new int[] { Integer.parseInt(split[0]), Integer.parseInt(split[1]) };
+    }
+}
@@ -0,0 +1,41 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Draws the fractals that are made of lines and squares. Iterations 0 means as
+ * deep as there is something to see.
+ */
+public class GeometricDrawBenchmark extends DrawBenchmark {
+    @Param({ "Koch", "Sierpinski" })
+    public String fractal;
+
+    @Param({ "3", "6", "0" })
+    public int iterations;
+
+    @Param({ "640x480", "1920x1080" })
+    public String size;
+
+    @Param({ "0.75", "8", "1000" })
+    public double zoom;
+
+    @Override
+    protected String getFractalType() {
+        return fractal;
+    }
+
+    @Override
+    protected int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    protected String getSize() {
+        return size;
+    }
+
+    @Override
+    protected double getZoom() {
+        return zoom;
+    }
+}
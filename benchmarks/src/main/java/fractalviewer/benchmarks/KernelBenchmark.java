@@ -0,0 +1,50 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Draws the escape-time fractals with the scalar and the vector kernel. Every
+ * shortcut is turned off, so every pixel is iterated in full and only the
+ * kernel makes a difference.
+ */
+public class KernelBenchmark extends DrawBenchmark {
+    @Param({ "Mandelbrot", "Julia" })
+    public String fractal;
+
+    @Param({ "false", "true" })
+    public boolean vector;
+
+    @Param({ "1024" })
+    public int iterations;
+
+    @Param({ "0.75", "8" })
+    public double zoom;
+
+    @Override
+    protected void configure(Object fractal) {
+        Fractals.set(fractal, "Vector kernel", String.valueOf(vector));
+        Fractals.set(fractal, "Rectangle subdivision", "false");
+        Fractals.set(fractal, "Interior test", "false");
+        Fractals.set(fractal, "Periodicity check", "false");
+    }
+
+    @Override
+    protected String getFractalType() {
+        return fractal;
+    }
+
+    @Override
+    protected int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    protected String getSize() {
+        return "640x480";
+    }
+
+    @Override
+    protected double getZoom() {
+        return zoom;
+    }
+}
@@ -0,0 +1,50 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Draws views of the Mandelbrot set that are mostly inside of it, with and
+ * without the shortcuts for interior points. Rectangle subdivision is turned
+ * off, so every pixel goes through the kernel.
+ */
+public class MandelbrotInteriorBenchmark extends DrawBenchmark {
+    // Which of the interior shortcuts are turned on
+    @Param({ "none", "interior", "periodicity", "both" })
+    public String shortcuts;
+
+    @Param({ "256", "2048" })
+    public int iterations;
+
+    // The whole set, and the main cardioid with the period-2 bulb filling most of the view
+    @Param({ "0.75", "2" })
+    public double zoom;
+
+    @Override
+    protected void configure(Object fractal) {
+        Fractals.set(fractal, "Rectangle subdivision", "false");
+        Fractals.set(fractal, "Interior test",
+                String.valueOf(shortcuts.equals("interior") || shortcuts.equals("both")));
+        Fractals.set(fractal, "Periodicity check",
+                String.valueOf(shortcuts.equals("periodicity") || shortcuts.equals("both")));
+    }
+
+    @Override
+    protected String getFractalType() {
+        return "Mandelbrot";
+    }
+
+    @Override
+    protected int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    protected String getSize() {
+        return "640x480";
+    }
+
+    @Override
+    protected double getZoom() {
+        return zoom;
+    }
+}
@@ -0,0 +1,52 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Draws the escape-time fractals in doubles and in the precision that is
+ * picked automatically. The deepest zoom is picked to be iterated in
+ * double-doubles, which shows what telling its pixels apart costs. Every
+ * shortcut is turned off, so every pixel is iterated in full.
+ */
+public class PrecisionBenchmark extends DrawBenchmark {
+    @Param({ "Mandelbrot", "Julia" })
+    public String fractal;
+
+    @Param({ "false", "true" })
+    public boolean automatic;
+
+    @Param({ "64" })
+    public int iterations;
+
+    @Param({ "1", "1e14" })
+    public double zoom;
+
+    @Override
+    protected void configure(Object fractal) {
+        Fractals.set(fractal, "Automatic precision", String.valueOf(automatic));
+        Fractals.set(fractal, "Deep zoom", "false");
+        Fractals.set(fractal, "Rectangle subdivision", "false");
+        Fractals.set(fractal, "Interior test", "false");
+        Fractals.set(fractal, "Periodicity check", "false");
+    }
+
+    @Override
+    protected String getFractalType() {
+        return fractal;
+    }
+
+    @Override
+    protected int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    protected String getSize() {
+        return "640x480";
+    }
+
+    @Override
+    protected double getZoom() {
+        return zoom;
+    }
+}
@@ -0,0 +1,79 @@
+package fractalviewer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the level by level hot paths of Koch and Sierpinski on their
+ * own, without the setup that draw does around them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RecursionBenchmark {
+    private static final int SIZE = 1024;
+
+    @Param({ "4", "7", "10" })
+    public int iterations;
+
+    private Object mKoch;
+    private Object mSierpinski;
+    private Object mBudget;
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+    private Rectangle mViewport;
+    private double mBase;
+
+    @Setup
+    public void setUp() {
+        mKoch = Fractals.create("Koch", iterations, 1);
+        mSierpinski = Fractals.create("Sierpinski", iterations, 1);
+        mImage = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        mGraphics = mImage.createGraphics();
+        mViewport = new Rectangle(0, 0, SIZE, SIZE);
+        mBase = 1.5;
+        mBudget = Fractals.createUnlimitedBudget();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mGraphics.dispose();
+    }
+
+    @Benchmark
+    public boolean drawKochBreadthFirst() throws Throwable {
+        return (boolean) Fractals.DRAW_KOCH_BREADTH_FIRST.invokeExact(mKoch, (Graphics) mGraphics, mViewport,
+                iterations, 0d, SIZE * 0.75, (double) SIZE, SIZE * 0.75, mBudget);
+    }
+
+    @Benchmark
+    public double[] getLineSegmentsOnBase() throws Throwable {
+        // The base is read from a field so the call can't be folded into a constant
+        return (double[]) Fractals.GET_LINE_SEGMENTS_ON_BASE.invokeExact(mKoch, mBase, 2d, 100d, 200d);
+    }
+
+    @Benchmark
+    public boolean drawSierpinskiBreadthFirst() throws Throwable {
+        return (boolean) Fractals.DRAW_SIERPINSKI_BREADTH_FIRST.invokeExact(mSierpinski, (Graphics) mGraphics,
+                mViewport, iterations, SIZE / 3d, SIZE / 3d, SIZE / 3d, mBudget);
+    }
+}
@@ -0,0 +1,187 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that cache files give back the view and the computed tiles they were
+ * written with, and that files that don't fit the settings or are damaged are
+ * not used.
+ */
+public class FractalCacheFileTest {
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 400;
+
+    // Settings that change what the Iteration stage computes
+    private static final int MANDELBROT_MAX_ITERATIONS = 3;
+
+    @TempDir
+    File mDirectory;
+
+    // Cache files stay open until another one is opened, don't let them reach other tests
+    @AfterEach
+    public void closeCacheFile() throws IOException {
+        FractalCacheFile.open(new File(mDirectory, "missing"), Fractal.getFractal(Fractal.FractalType.Mandelbrot));
+        FractalEscapeTime.clearIterationCache();
+        FractalCoverageMask.clearCache();
+    }
+
+    @Test
+    public void mandelbrotRoundTrip() throws IOException {
+        assertRoundTrip(Fractal.FractalType.Mandelbrot);
+    }
+
+    @Test
+    public void sierpinskiRoundTrip() throws IOException {
+        assertRoundTrip(Fractal.FractalType.Sierpinski);
+    }
+
+    @Test
+    public void changedSettingsAreNotOpened() throws IOException {
+        File file = writeCacheFile(Fractal.FractalType.Mandelbrot);
+
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        fractal.getFractalSettings()[MANDELBROT_MAX_ITERATIONS].deserialize("7");
+        FractalView view = fractal.getView();
+        assertFalse(FractalCacheFile.open(file, fractal));
+        assertEquals(view, fractal.getView());
+    }
+
+    @Test
+    public void fieldOfTheWrongLengthIsRejected() throws IOException {
+        File file = writeCacheFile(Fractal.FractalType.Mandelbrot);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int lengthPosition = getFirstTilePosition(buffer) + 20;
+        buffer.putInt(lengthPosition, buffer.getInt(lengthPosition) - 4);
+        Files.write(file.toPath(), bytes);
+
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        FractalView view = fractal.getView();
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                FractalCacheFile.open(file, fractal);
+            }
+        });
+        assertEquals(view, fractal.getView());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        File file = writeCacheFile(Fractal.FractalType.Mandelbrot);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        Files.write(file.toPath(), Arrays.copyOf(bytes, getFirstTilePosition(buffer) + 8));
+
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        FractalView view = fractal.getView();
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                FractalCacheFile.open(file, fractal);
+            }
+        });
+        assertEquals(view, fractal.getView());
+    }
+
+    // A count that is out of range is only found when its tile is drawn, which then computes the tile instead
+    @Test
+    public void iterationCountOutOfRangeIsComputed() throws IOException {
+        Fractal original = createFractal(Fractal.FractalType.Mandelbrot);
+        int[] expected = drawTiles(original);
+        File file = writeCacheFile(Fractal.FractalType.Mandelbrot);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = buffer.getInt(getFirstTilePosition(buffer) + 16);
+        buffer.putInt(offset + 4000, 99999);
+        Files.write(file.toPath(), bytes);
+
+        FractalEscapeTime.clearIterationCache();
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        assertTrue(FractalCacheFile.open(file, fractal));
+        assertArrayEquals(expected, drawTiles(fractal));
+    }
+
+    private void assertRoundTrip(Fractal.FractalType type) throws IOException {
+        Fractal original = createFractal(type);
+        int[] expected = drawTiles(original);
+        File file = writeCacheFile(type);
+
+        // Nothing is left in memory, so the tiles can only come from the file
+        FractalEscapeTime.clearIterationCache();
+        FractalCoverageMask.clearCache();
+        Fractal fractal = Fractal.getFractal(type);
+        assertTrue(FractalCacheFile.open(file, fractal));
+        assertEquals(original.getView(), fractal.getView());
+        assertNotNull(FractalCacheFile.getField(fractal.getFieldKey(getTileRegion(fractal, 0, 0), WIDTH, HEIGHT)));
+        assertArrayEquals(expected, drawTiles(fractal));
+    }
+
+    // Draws the tiles of a Fractal that isn't the default one, and writes them to a cache file
+    private File writeCacheFile(Fractal.FractalType type) throws IOException {
+        Fractal fractal = createFractal(type);
+        drawTiles(fractal);
+        File file = new File(mDirectory, type + ".cache");
+        FractalCacheFile.write(file, fractal, WIDTH, HEIGHT);
+        return file;
+    }
+
+    private static Fractal createFractal(Fractal.FractalType type) {
+        Fractal fractal = Fractal.getFractal(type);
+        fractal.setView(3, 123, -45);
+        return fractal;
+    }
+
+    // Draws the visible tiles one by one like the renderer does, so their fields are kept per tile
+    private static int[] drawTiles(Fractal fractal) {
+        BufferedImage frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = frame.createGraphics();
+        Rectangle tiles = FractalRenderer.getVisibleTiles(fractal, WIDTH, HEIGHT);
+        for (int tileY = tiles.y; tileY < tiles.y + tiles.height; tileY ++) {
+            for (int tileX = tiles.x; tileX < tiles.x + tiles.width; tileX ++) {
+                Rectangle region = getTileRegion(fractal, tileX, tileY);
+                BufferedImage tile = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D tileGraphics = tile.createGraphics();
+                tileGraphics.translate(-region.x, -region.y);
+                tileGraphics.clipRect(region.x, region.y, region.width, region.height);
+                assertTrue(fractal.draw(tileGraphics, WIDTH, HEIGHT, new FractalRenderBudget()));
+                tileGraphics.dispose();
+                g.drawImage(tile, region.x, region.y, null);
+            }
+        }
+        g.dispose();
+        return frame.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private static Rectangle getTileRegion(Fractal fractal, int tileX, int tileY) {
+        int tileSize = FractalTileCache.TILE_SIZE;
+        return new Rectangle(tileX * tileSize + fractal.getPanX(), tileY * tileSize + fractal.getPanY(), tileSize,
+                tileSize);
+    }
+
+    // Skips the header of a cache file, up to the region, offset and length of its first tile
+    private static int getFirstTilePosition(ByteBuffer buffer) {
+        int position = 4 * 4;
+        position += 4 + buffer.getInt(position);
+        position += 4 + buffer.getInt(position);
+        assertTrue(buffer.getInt(position) > 0, "no tiles in the cache file");
+        return position + 4;
+    }
+}
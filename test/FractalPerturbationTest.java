@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the perturbation kernel against orbits that are iterated directly in
+ * BigDecimals, at zooms where doubles can't tell the pixels apart anymore.
+ */
+public class FractalPerturbationTest {
+    private static final int GRID_SIZE = 16;
+    private static final int VIEWPORT_SIZE = 800;
+    private static final MathContext REFERENCE_PRECISION = new MathContext(80);
+
+    // Settings of the Mandelbrot set
+    private static final int MANDELBROT_MAX_ITERATIONS = 3;
+    private static final int MANDELBROT_DEEP_ZOOM = 4;
+
+    // c = i is on the edge of the set, as its orbit ends in a cycle that repels. However deep the zoom, it doesn't
+    // escape and the points around it do, the closer they are the later.
+    private static final String EDGE_X = "0";
+    private static final String EDGE_Y = "1";
+
+    @Test
+    public void perturbationMatchesBigDecimalOrbits() {
+        for (double zoom : new double[] {1e15, 1e25, 1e40}) {
+            assertEquivalent(zoom, 0, 0);
+        }
+    }
+
+    // The reference orbit is that of the middle of the viewport, which is then somewhere else than the center
+    @Test
+    public void perturbationWithPanMatchesBigDecimalOrbits() {
+        assertEquivalent(1e20, 300, -200);
+    }
+
+    // The center is put where the pan makes the edge point the middle of the viewport. Pixels that outlive the
+    // reference orbit lose precision, so the middle has to be a point that doesn't escape.
+    private static void assertEquivalent(double zoom, int panX, int panY) {
+        FractalMandelbrot fractal = (FractalMandelbrot) Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        fractal.getFractalSettings()[MANDELBROT_DEEP_ZOOM].deserialize("true");
+        fractal.getFractalSettings()[MANDELBROT_MAX_ITERATIONS].deserialize("1000");
+        fractal.deserializeView(zoom + ",0,0," + EDGE_X + "," + EDGE_Y);
+
+        double scale = fractal.getScale(VIEWPORT_SIZE, VIEWPORT_SIZE);
+        BigDecimal middleX = new BigDecimal(EDGE_X);
+        BigDecimal middleY = new BigDecimal(EDGE_Y);
+        fractal.deserializeView(zoom + "," + panX + "," + panY + ","
+                + middleX.add(new BigDecimal(scale).multiply(BigDecimal.valueOf(panX))) + ","
+                + middleY.add(new BigDecimal(scale).multiply(BigDecimal.valueOf(panY))));
+        FractalEscapeTime.Kernel kernel = fractal.createKernel(FractalEscapeTime.Precision.Perturbation, 0, 0, scale);
+
+        int maxIterations = fractal.getMaxIterations();
+        int escaped = 0;
+        double step = (double) VIEWPORT_SIZE / GRID_SIZE * scale;
+        for (int row = 0; row < GRID_SIZE; row ++) {
+            for (int column = 0; column < GRID_SIZE; column ++) {
+                double x = (column - GRID_SIZE / 2) * step;
+                double y = (row - GRID_SIZE / 2) * step;
+                int expected = iterate(middleX.add(new BigDecimal(x)), middleY.add(new BigDecimal(y)), maxIterations);
+                assertEquals(expected, kernel.iterate(x, y, maxIterations),
+                        "perturbation at zoom " + zoom + ", (" + x + ", " + y + ")");
+                if (expected < maxIterations) {
+                    escaped ++;
+                }
+            }
+        }
+        // Otherwise only points that don't escape were compared
+        assertTrue(escaped > 0, "no point escaped at zoom " + zoom);
+    }
+
+    // Iterates z = z^2 + c with BigDecimals, with the same escape test as the kernels
+    private static int iterate(BigDecimal cx, BigDecimal cy, int maxIterations) {
+        BigDecimal zx = BigDecimal.ZERO;
+        BigDecimal zy = BigDecimal.ZERO;
+        for (int iteration = 1; iteration <= maxIterations; iteration ++) {
+            BigDecimal zx2 = zx.multiply(zx, REFERENCE_PRECISION);
+            BigDecimal zy2 = zy.multiply(zy, REFERENCE_PRECISION);
+            zy = zx.multiply(zy, REFERENCE_PRECISION).multiply(BigDecimal.valueOf(2)).add(cy, REFERENCE_PRECISION);
+            zx = zx2.subtract(zy2).add(cx, REFERENCE_PRECISION);
+
+            double x = zx.doubleValue();
+            double y = zy.doubleValue();
+            if (x * x + y * y > 4) {
+                return iteration;
+            }
+        }
+        return maxIterations;
+    }
+}
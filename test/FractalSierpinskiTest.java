@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that raster mode covers the same pixels of the Sierpinski carpet as
+ * drawing its squares level by level.
+ */
+public class FractalSierpinskiTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    // Settings of the Sierpinski carpet
+    private static final int SIERPINSKI_ITERATIONS = 2;
+    private static final int SIERPINSKI_RASTER_MODE = 3;
+
+    @AfterEach
+    public void clearMasks() {
+        FractalCoverageMask.clearCache();
+    }
+
+    @Test
+    public void rasterMatchesSquares() {
+        assertEquivalent(1, 0, 0, 0);
+    }
+
+    @Test
+    public void zoomedRasterMatchesSquares() {
+        assertEquivalent(3.7, 123, -45, 0);
+    }
+
+    // The first square is 600000 pixels large here, and the view lies among the smaller squares far from it
+    @Test
+    public void deeplyZoomedRasterMatchesSquares() {
+        assertEquivalent(5000.3, 390_000, 520_000, 0);
+    }
+
+    @Test
+    public void limitedIterationsRasterMatchesSquares() {
+        assertEquivalent(2.3, 40, 20, 3);
+    }
+
+    private static void assertEquivalent(double zoom, int panX, int panY, int iterations) {
+        byte[][] masks = new byte[2][];
+        for (int i = 0; i < 2; i ++) {
+            Fractal fractal = Fractal.getFractal(Fractal.FractalType.Sierpinski);
+            fractal.getFractalSettings()[SIERPINSKI_ITERATIONS].deserialize(Integer.toString(iterations));
+            fractal.getFractalSettings()[SIERPINSKI_RASTER_MODE].deserialize(i == 1 ? "true" : "false");
+            fractal.setView(zoom, panX, panY);
+
+            Graphics2D g = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            assertTrue(fractal.draw(g, WIDTH, HEIGHT, new FractalRenderBudget()));
+            g.dispose();
+
+            ByteBuffer field = fractal.getCachedField(fractal.getFieldKey(new Rectangle(0, 0, WIDTH, HEIGHT), WIDTH,
+                    HEIGHT));
+            assertNotNull(field);
+            masks[i] = new byte[WIDTH * HEIGHT];
+            field.get(masks[i]);
+        }
+
+        int covered = 0;
+        for (int i = 0; i < masks[0].length; i ++) {
+            assertEquals(masks[0][i], masks[1][i], "mask at (" + i % WIDTH + ", " + i / WIDTH + ")");
+            covered += masks[0][i];
+        }
+        // Otherwise the view only shows the inside of a square or none at all
+        assertTrue(covered > 0 && covered < masks[0].length, covered + " pixels covered");
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that rectangle subdivision gives the same iteration counts as
+ * computing every pixel, while computing fewer of them.
+ */
+public class FractalSubdivisionTest {
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 384;
+
+    // Settings that turn rectangle subdivision on and off
+    private static final int MANDELBROT_SUBDIVISION = 5;
+    private static final int JULIA_SUBDIVISION = 6;
+
+    // Settings of the Julia set for its constant
+    private static final int JULIA_CONSTANT_REAL = 4;
+    private static final int JULIA_CONSTANT_IMAGINARY = 5;
+
+    @Test
+    public void mandelbrotMatchesEveryPixel() {
+        assertEquivalent(Fractal.FractalType.Mandelbrot, MANDELBROT_SUBDIVISION, null, null, 1, 0, 0);
+    }
+
+    // Most of this view is close to the edge, where the rectangles are small
+    @Test
+    public void zoomedMandelbrotMatchesEveryPixel() {
+        assertEquivalent(Fractal.FractalType.Mandelbrot, MANDELBROT_SUBDIVISION, null, null, 40, 3000, 400);
+    }
+
+    @Test
+    public void connectedJuliaMatchesEveryPixel() {
+        assertEquivalent(Fractal.FractalType.Julia, JULIA_SUBDIVISION, "-0.123", "0.745", 1.2, 0, 0);
+    }
+
+    @Test
+    public void zoomedJuliaMatchesEveryPixel() {
+        assertEquivalent(Fractal.FractalType.Julia, JULIA_SUBDIVISION, "-0.123", "0.745", 8, 500, -300);
+    }
+
+    private static void assertEquivalent(Fractal.FractalType type, int subdivisionSetting, String constantReal,
+                                         String constantImaginary, double zoom, int panX, int panY) {
+        long[] pixels = new long[2];
+        int[][] iterations = new int[2][];
+        for (int i = 0; i < 2; i ++) {
+            Fractal fractal = Fractal.getFractal(type);
+            fractal.getFractalSettings()[subdivisionSetting].deserialize(i == 1 ? "true" : "false");
+            if (constantReal != null) {
+                fractal.getFractalSettings()[JULIA_CONSTANT_REAL].deserialize(constantReal);
+                fractal.getFractalSettings()[JULIA_CONSTANT_IMAGINARY].deserialize(constantImaginary);
+            }
+            fractal.setView(zoom, panX, panY);
+
+            FractalEscapeTime.clearIterationCache();
+            FractalRenderBudget budget = new FractalRenderBudget();
+            Graphics2D g = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            assertTrue(fractal.draw(g, WIDTH, HEIGHT, budget));
+            g.dispose();
+            pixels[i] = budget.getPixels();
+
+            ByteBuffer field = fractal.getCachedField(fractal.getFieldKey(new Rectangle(0, 0, WIDTH, HEIGHT), WIDTH,
+                    HEIGHT));
+            assertNotNull(field);
+            iterations[i] = new int[WIDTH * HEIGHT];
+            field.asIntBuffer().get(iterations[i]);
+        }
+
+        for (int i = 0; i < iterations[0].length; i ++) {
+            assertEquals(iterations[0][i], iterations[1][i],
+                    type + " at (" + i % WIDTH + ", " + i / WIDTH + ")");
+        }
+        assertTrue(pixels[1] < pixels[0], "subdivision computed " + pixels[1] + " of " + pixels[0] + " pixels");
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the tile cache stays within its memory and evicts the least
+ * recently used tiles first.
+ */
+public class FractalTileCacheTest {
+    private static final int TILE_SIZE = FractalTileCache.TILE_SIZE;
+    private static final long TILE_BYTES = (long) TILE_SIZE * TILE_SIZE * 4;
+
+    @Test
+    public void evictsLeastRecentlyPutTile() {
+        FractalTileCache cache = new FractalTileCache(TILE_BYTES * 3);
+        for (int i = 0; i < 4; i ++) {
+            cache.put(createKey(i), createTile(TILE_SIZE));
+        }
+
+        assertFalse(cache.contains(createKey(0)));
+        for (int i = 1; i < 4; i ++) {
+            assertTrue(cache.contains(createKey(i)));
+        }
+    }
+
+    // Getting a tile makes it the most recently used one, while checking for it doesn't
+    @Test
+    public void evictsLeastRecentlyUsedTile() {
+        FractalTileCache cache = new FractalTileCache(TILE_BYTES * 3);
+        for (int i = 0; i < 3; i ++) {
+            cache.put(createKey(i), createTile(TILE_SIZE));
+        }
+        assertNotNull(cache.get(createKey(0)));
+        assertTrue(cache.contains(createKey(1)));
+        cache.put(createKey(3), createTile(TILE_SIZE));
+
+        assertTrue(cache.contains(createKey(0)));
+        assertFalse(cache.contains(createKey(1)));
+        assertTrue(cache.contains(createKey(2)));
+        assertTrue(cache.contains(createKey(3)));
+    }
+
+    // The budget is in bytes, so small tiles at the edge of the viewport take up less of it
+    @Test
+    public void boundByBytesRatherThanTiles() {
+        FractalTileCache cache = new FractalTileCache(TILE_BYTES);
+        for (int i = 0; i < 4; i ++) {
+            cache.put(createKey(i), createTile(TILE_SIZE / 2));
+        }
+        for (int i = 0; i < 4; i ++) {
+            assertTrue(cache.contains(createKey(i)));
+        }
+
+        cache.put(createKey(4), createTile(TILE_SIZE));
+        for (int i = 0; i < 4; i ++) {
+            assertFalse(cache.contains(createKey(i)));
+        }
+        assertTrue(cache.contains(createKey(4)));
+    }
+
+    // Putting a tile again replaces it and only counts its new size
+    @Test
+    public void replacingTileFreesItsBytes() {
+        FractalTileCache cache = new FractalTileCache(TILE_BYTES * 2);
+        cache.put(createKey(0), createTile(TILE_SIZE));
+        cache.put(createKey(1), createTile(TILE_SIZE));
+        BufferedImage replacement = createTile(TILE_SIZE);
+        cache.put(createKey(1), replacement);
+
+        assertTrue(cache.contains(createKey(0)));
+        assertSame(replacement, cache.get(createKey(1)));
+    }
+
+    // A tile that is larger than the whole budget isn't kept at all
+    @Test
+    public void tileLargerThanBudgetIsNotKept() {
+        FractalTileCache cache = new FractalTileCache(TILE_BYTES - 1);
+        cache.put(createKey(0), createTile(TILE_SIZE));
+
+        assertNull(cache.get(createKey(0)));
+    }
+
+    private static FractalTileCache.TileKey createKey(int tileX) {
+        return new FractalTileCache.TileKey(Fractal.FractalType.Mandelbrot, "", 1, 800, 600, tileX, 0);
+    }
+
+    private static BufferedImage createTile(int size) {
+        return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    }
+}
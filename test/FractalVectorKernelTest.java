@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the vector kernels give exactly the same iteration counts as the
+ * scalar kernels, in every precision they exist for.
+ */
+public class FractalVectorKernelTest {
+    // The row length isn't a multiple of any vector length, so partially filled vectors are checked as well
+    private static final int GRID_SIZE = 101;
+
+    // Settings of the Mandelbrot set that pick another path through its vector kernel
+    private static final int MANDELBROT_INTERIOR_TEST = 7;
+    private static final int MANDELBROT_PERIODICITY_CHECK = 8;
+
+    // Settings of the Julia set for its constant
+    private static final int JULIA_CONSTANT_REAL = 4;
+    private static final int JULIA_CONSTANT_IMAGINARY = 5;
+
+    @Test
+    public void mandelbrotMatchesScalarKernel() {
+        assertEquivalent(Fractal.getFractal(Fractal.FractalType.Mandelbrot));
+    }
+
+    @Test
+    public void mandelbrotWithoutInteriorTestMatchesScalarKernel() {
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        fractal.getFractalSettings()[MANDELBROT_INTERIOR_TEST].deserialize("false");
+        assertEquivalent(fractal);
+    }
+
+    @Test
+    public void mandelbrotWithoutPeriodicityCheckMatchesScalarKernel() {
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        fractal.getFractalSettings()[MANDELBROT_PERIODICITY_CHECK].deserialize("false");
+        assertEquivalent(fractal);
+    }
+
+    @Test
+    public void mandelbrotWithoutShortcutsMatchesScalarKernel() {
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Mandelbrot);
+        fractal.getFractalSettings()[MANDELBROT_INTERIOR_TEST].deserialize("false");
+        fractal.getFractalSettings()[MANDELBROT_PERIODICITY_CHECK].deserialize("false");
+        assertEquivalent(fractal);
+    }
+
+    @Test
+    public void juliaMatchesScalarKernel() {
+        assertEquivalent(Fractal.getFractal(Fractal.FractalType.Julia));
+    }
+
+    // The Douady rabbit is connected, so many points never escape
+    @Test
+    public void connectedJuliaMatchesScalarKernel() {
+        Fractal fractal = Fractal.getFractal(Fractal.FractalType.Julia);
+        fractal.getFractalSettings()[JULIA_CONSTANT_REAL].deserialize("-0.123");
+        fractal.getFractalSettings()[JULIA_CONSTANT_IMAGINARY].deserialize("0.745");
+        assertEquivalent(fractal);
+    }
+
+    // Compares the kernels on a grid over the whole fractal and on one over a part of its edge
+    private static void assertEquivalent(Fractal fractal) {
+        Assumptions.assumeTrue(FractalEscapeTime.isVectorSupported(), "The Vector API is not available");
+
+        FractalEscapeTime escapeTime = (FractalEscapeTime) fractal;
+        for (FractalEscapeTime.Precision precision : FractalEscapeTime.Precision.values()) {
+            assertEquivalent(escapeTime, precision, escapeTime.getCenterX(), escapeTime.getCenterY(), 3.0 / GRID_SIZE);
+            assertEquivalent(escapeTime, precision, escapeTime.getCenterX() - 0.75, escapeTime.getCenterY() + 0.1,
+                    0.01 / GRID_SIZE);
+        }
+    }
+
+    private static void assertEquivalent(FractalEscapeTime fractal, FractalEscapeTime.Precision precision,
+                                         double centerX, double centerY, double scale) {
+        FractalEscapeTime.Kernel scalarKernel = fractal.createKernel(precision, centerX, centerY, scale);
+        FractalEscapeTime.Kernel vectorKernel = fractal.createVectorKernel(precision, scalarKernel, centerX, centerY,
+                scale);
+        if (vectorKernel == null) {
+            return;
+        }
+
+        int maxIterations = fractal.getMaxIterations();
+        double[] x = new double[GRID_SIZE];
+        double[] y = new double[GRID_SIZE];
+        int[] iterations = new int[GRID_SIZE];
+        for (int row = 0; row < GRID_SIZE; row ++) {
+            for (int i = 0; i < GRID_SIZE; i ++) {
+                x[i] = (i - GRID_SIZE / 2) * scale;
+                y[i] = (row - GRID_SIZE / 2) * scale;
+            }
+
+            vectorKernel.iterate(x, y, iterations, GRID_SIZE, maxIterations);
+            for (int i = 0; i < GRID_SIZE; i ++) {
+                assertEquals(scalarKernel.iterate(x[i], y[i], maxIterations), iterations[i],
+                        precision.getName() + " kernel at (" + x[i] + ", " + y[i] + ")");
+            }
+        }
+    }
+}